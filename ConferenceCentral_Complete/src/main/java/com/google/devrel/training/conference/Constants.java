@@ -13,5 +13,6 @@ public class Constants {
     public static final String EMAIL_SCOPE = Constant.API_EMAIL_SCOPE;
     public static final String API_EXPLORER_CLIENT_ID = Constant.API_EXPLORER_CLIENT_ID;
 
-    public static final String MEMCACHE_ANNOUNCEMENTS_KEY = "RECENT_ANNOUNCEMENTS";
+    public static final String MEMCACHE_ANNOUNCEMENTS_KEY = "ANNOUNCEMENT_SNAPSHOT";
+    public static final String MEMCACHE_AUTOCOMPLETE_KEY = "AUTOCOMPLETE";
 }
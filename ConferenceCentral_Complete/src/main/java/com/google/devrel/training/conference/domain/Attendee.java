@@ -0,0 +1,45 @@
+package com.google.devrel.training.conference.domain;
+
+import java.util.Date;
+
+/**
+ * An attendee of a Conference, as listed to its organizer by getAttendees.
+ */
+public class Attendee {
+
+    private String displayName;
+
+    private String mainEmail;
+
+    private Date registeredAt;
+
+    public Attendee() {}
+
+    /**
+     * Public constructor for Attendee.
+     *
+     * @param registration The Registration of the attendee.
+     * @param profile The Profile of the attendee, or null when it is missing.
+     */
+    public Attendee(Registration registration, Profile profile) {
+        this.displayName = profile == null ? null : profile.getDisplayName();
+        this.mainEmail = profile == null ? null : profile.getMainEmail();
+        this.registeredAt = registration.getRegisteredAt();
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    public String getMainEmail() {
+        return mainEmail;
+    }
+
+    /**
+     * Returns a defensive copy of registeredAt if not null.
+     * @return a defensive copy of registeredAt if not null.
+     */
+    public Date getRegisteredAt() {
+        return registeredAt == null ? null : new Date(registeredAt.getTime());
+    }
+}
@@ -0,0 +1,33 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * A page of the attendees of a Conference, with the cursor to continue from.
+ */
+public class AttendeeListResult {
+
+    private List<Attendee> items;
+
+    /**
+     * The websafe cursor for the next page, or null when there are no more attendees.
+     */
+    private String nextCursor;
+
+    public AttendeeListResult() {}
+
+    public AttendeeListResult(List<Attendee> items, String nextCursor) {
+        this.items = ImmutableList.copyOf(items);
+        this.nextCursor = nextCursor;
+    }
+
+    public List<Attendee> getItems() {
+        return items;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+}
@@ -0,0 +1,79 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Parent;
+
+/**
+ * AutocompleteTerm stores a term a Conference is suggested by, as a row of the prefix table of
+ * AutocompleteService.
+ *
+ * It is a child of the Conference, so createConference and updateConference replace the terms
+ * in the transaction which saves the Conference. The instances load all the terms into their
+ * tables, so none of the properties is indexed.
+ */
+@Entity
+public class AutocompleteTerm {
+
+    /**
+     * Use the type and the term joined by ":" as the datastore key, so a Conference has each
+     * term once.
+     */
+    @Id
+    private String id;
+
+    @Parent
+    private Key<Conference> conferenceKey;
+
+    /**
+     * The normalized term.
+     */
+    private String term;
+
+    /**
+     * The text to suggest.
+     */
+    private String text;
+
+    private Suggestion.Type type;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private AutocompleteTerm() {}
+
+    /**
+     * Public constructor for AutocompleteTerm.
+     *
+     * @param conferenceKey The key of the Conference.
+     * @param term The normalized term.
+     * @param text The text to suggest.
+     * @param type What the suggestion completes.
+     */
+    public AutocompleteTerm(Key<Conference> conferenceKey, String term, String text,
+                            Suggestion.Type type) {
+        this.conferenceKey = conferenceKey;
+        this.id = type + ":" + term;
+        this.term = term;
+        this.text = text;
+        this.type = type;
+    }
+
+    public String getTerm() {
+        return term;
+    }
+
+    public Suggestion.Type getType() {
+        return type;
+    }
+
+    /**
+     * Returns the Suggestion this term stands for.
+     *
+     * @return a Suggestion.
+     */
+    public Suggestion toSuggestion() {
+        return new Suggestion(term, text, type, conferenceKey.getString());
+    }
+}
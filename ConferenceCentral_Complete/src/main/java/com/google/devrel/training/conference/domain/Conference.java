@@ -7,11 +7,16 @@ import com.google.api.server.spi.config.ApiResourceProperty;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.service.VersionCache;
 import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
 import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.OnLoad;
+import com.googlecode.objectify.annotation.OnSave;
 import com.googlecode.objectify.annotation.Parent;
+import com.googlecode.objectify.condition.ValueIf;
 
 import java.util.Calendar;
 import java.util.Date;
@@ -19,14 +24,34 @@ import java.util.List;
 
 /**
  * Conference class stores conference information.
+ *
+ * Conferences are read far more often than they are written, so they are kept in the Objectify
+ * global cache (memcache) as well as the session cache.
  */
 @Entity
+@Cache
 public class Conference {
 
     private static final String DEFAULT_CITY = "Default City";
 
     private static final List<String> DEFAULT_TOPICS = ImmutableList.of("Default", "Topic");
 
+    /**
+     * A Conference with fewer seats available than this is nearly sold out.
+     */
+    public static final int NEARLY_SOLD_OUT_SEATS = 5;
+
+    /**
+     * Matches the number of seats available of a nearly sold out Conference.
+     */
+    public static class IfNearlySoldOut extends ValueIf<Integer> {
+        @Override
+        public boolean matchesValue(Integer seatsAvailable) {
+            return seatsAvailable != null && seatsAvailable > 0
+                    && seatsAvailable < NEARLY_SOLD_OUT_SEATS;
+        }
+    }
+
     /**
      * The id for the datastore key.
      *
@@ -74,11 +99,13 @@ public class Conference {
     /**
      * The starting date of this conference.
      */
+    @Index
     private Date startDate;
 
     /**
      * The ending date of this conference.
      */
+    @Index
     private Date endDate;
 
     /**
@@ -89,6 +116,22 @@ public class Conference {
     @Index
     private int month;
 
+    /**
+     * The starting year and month derived from startDate, as year * 100 + month.
+     *
+     * Lets a query select a single month of a single year with an equality filter.
+     */
+    @Index
+    private int yearMonth;
+
+    /**
+     * The ISO 8601 week of startDate, as week-based-year * 100 + week.
+     *
+     * Lets a query select a single week with an equality filter.
+     */
+    @Index
+    private int isoWeek;
+
     /**
      * The maximum capacity of this conference.
      */
@@ -97,10 +140,35 @@ public class Conference {
 
     /**
      * Number of seats currently available.
+     *
+     * Only indexed while the Conference is nearly sold out, which is all AnnouncementService
+     * queries for, so that registrations don't rewrite the index rows on every seat booked.
      */
-    @Index
+    @Index(IfNearlySoldOut.class)
     private int seatsAvailable;
 
+    /**
+     * Number of users on the waitlist. The seats which free up while anyone is on it are kept for
+     * them, so registerForConference takes the Conference as sold out.
+     */
+    private int waitlistLength;
+
+    /**
+     * Incremented on every save, so that clients can tell whether their copy is current.
+     */
+    private long version;
+
+    /**
+     * Incremented on every update from a ConferenceForm, and not on registrations, so that
+     * updateConference can tell an edit was made on a copy which another edit has since changed.
+     */
+    private long editVersion;
+
+    /**
+     * When the Conference was last saved.
+     */
+    private Date updatedAt;
+
     /**
      * Just making the default constructor private.
      */
@@ -187,6 +255,14 @@ public class Conference {
         return month;
     }
 
+    public int getYearMonth() {
+        return yearMonth;
+    }
+
+    public int getIsoWeek() {
+        return isoWeek;
+    }
+
     public int getMaxAttendees() {
         return maxAttendees;
     }
@@ -195,6 +271,55 @@ public class Conference {
         return seatsAvailable;
     }
 
+    public int getWaitlistLength() {
+        return waitlistLength;
+    }
+
+    /**
+     * Tells whether registerForConference can book a seat: there is one, and nobody on the
+     * waitlist is waiting for it.
+     *
+     * @return true when a seat is open to registrations.
+     */
+    public boolean isOpenForRegistration() {
+        return seatsAvailable > 0 && waitlistLength == 0;
+    }
+
+    /**
+     * Tells whether the waitlist has users to promote to free seats.
+     *
+     * @return true when there are both free seats and users waiting.
+     */
+    public boolean hasWaitlistToPromote() {
+        return seatsAvailable > 0 && waitlistLength > 0;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long getEditVersion() {
+        return editVersion;
+    }
+
+    /**
+     * Returns a defensive copy of updatedAt if not null.
+     * @return a defensive copy of updatedAt if not null.
+     */
+    public Date getUpdatedAt() {
+        return updatedAt == null ? null : new Date(updatedAt.getTime());
+    }
+
+    /**
+     * Bumps the version before every save, and publishes it to VersionCache once saved.
+     */
+    @OnSave
+    private void bumpVersion() {
+        version++;
+        updatedAt = new Date();
+        VersionCache.publish(Key.create(profileKey, Conference.class, id), version);
+    }
+
     /**
      * Updates the Conference with ConferenceForm.
      * This method is used upon object creation as well as updating existing Conferences.
@@ -202,6 +327,7 @@ public class Conference {
      * @param conferenceForm contains form data sent from the client.
      */
     public void updateWithConferenceForm(ConferenceForm conferenceForm) {
+        editVersion++;
         this.name = conferenceForm.getName();
         this.description = conferenceForm.getDescription();
         List<String> topics = conferenceForm.getTopics();
@@ -212,13 +338,7 @@ public class Conference {
         this.startDate = startDate == null ? null : new Date(startDate.getTime());
         Date endDate = conferenceForm.getEndDate();
         this.endDate = endDate == null ? null : new Date(endDate.getTime());
-        if (this.startDate != null) {
-            // Getting the starting month for a composite query.
-            Calendar calendar = Calendar.getInstance();
-            calendar.setTime(this.startDate);
-            // Calendar.MONTH is zero based, so adding 1.
-            this.month = calendar.get(calendar.MONTH) + 1;
-        }
+        updateDateBuckets();
         // Check maxAttendees value against the number of already allocated seats.
         int seatsAllocated = maxAttendees - seatsAvailable;
         if (conferenceForm.getMaxAttendees() < seatsAllocated) {
@@ -231,6 +351,39 @@ public class Conference {
         this.seatsAvailable = this.maxAttendees - seatsAllocated;
     }
 
+    /**
+     * Derives month, yearMonth and isoWeek from startDate.
+     */
+    private void updateDateBuckets() {
+        if (this.startDate != null) {
+            // Getting the starting month for a composite query.
+            Calendar calendar = Calendar.getInstance();
+            calendar.setTime(this.startDate);
+            // Calendar.MONTH is zero based, so adding 1.
+            this.month = calendar.get(calendar.MONTH) + 1;
+            this.yearMonth = calendar.get(Calendar.YEAR) * 100 + this.month;
+            // ISO 8601 weeks start on Monday, and the first week has at least 4 days.
+            calendar.setFirstDayOfWeek(Calendar.MONDAY);
+            calendar.setMinimalDaysInFirstWeek(4);
+            this.isoWeek = calendar.getWeekYear() * 100 + calendar.get(Calendar.WEEK_OF_YEAR);
+        } else {
+            this.month = 0;
+            this.yearMonth = 0;
+            this.isoWeek = 0;
+        }
+    }
+
+    /**
+     * Derives the buckets Conferences saved before there were yearMonth and isoWeek lack, so
+     * that they are read right, and indexed on their next save.
+     */
+    @OnLoad
+    private void fillDateBuckets() {
+        if (this.startDate != null && this.yearMonth == 0) {
+            updateDateBuckets();
+        }
+    }
+
     public void bookSeats(final int number) {
         if (seatsAvailable < number) {
             throw new IllegalArgumentException("There are no seats available.");
@@ -238,6 +391,17 @@ public class Conference {
         seatsAvailable = seatsAvailable - number;
     }
 
+    public void addToWaitlist() {
+        waitlistLength++;
+    }
+
+    public void removeFromWaitlist(final int number) {
+        if (waitlistLength < number) {
+            throw new IllegalArgumentException("The waitlist is shorter than " + number);
+        }
+        waitlistLength = waitlistLength - number;
+    }
+
     public void giveBackSeats(final int number) {
         if (seatsAvailable + number > maxAttendees) {
             throw new IllegalArgumentException("The number of seats will exceeds the capacity.");
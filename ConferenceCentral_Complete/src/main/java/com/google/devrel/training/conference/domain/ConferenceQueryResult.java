@@ -0,0 +1,57 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.api.server.spi.config.AnnotationBoolean;
+import com.google.api.server.spi.config.ApiResourceProperty;
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * A page of Conferences returned by a query, with the cursor to continue from.
+ */
+public class ConferenceQueryResult {
+
+    private List<Conference> items;
+
+    /**
+     * The websafe cursor for the next page, or null when there are no more results.
+     */
+    private String nextCursor;
+
+    /**
+     * Whether the query ran out of its budget before the end of the page.
+     */
+    private boolean truncated;
+
+    /**
+     * The number of keys the query returned, including the ones of deleted Conferences.
+     */
+    private int keysScanned;
+
+    public ConferenceQueryResult() {}
+
+    public ConferenceQueryResult(List<Conference> items, String nextCursor, boolean truncated,
+                                 int keysScanned) {
+        this.items = ImmutableList.copyOf(items);
+        this.nextCursor = nextCursor;
+        this.truncated = truncated;
+        this.keysScanned = keysScanned;
+    }
+
+    public List<Conference> getItems() {
+        return items;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public int getKeysScanned() {
+        return keysScanned;
+    }
+}
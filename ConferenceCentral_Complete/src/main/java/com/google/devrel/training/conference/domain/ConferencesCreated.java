@@ -0,0 +1,168 @@
+package com.google.devrel.training.conference.domain;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.devrel.training.conference.service.Transactions;
+import com.google.devrel.training.conference.service.Transactions.Operation;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Parent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * ConferencesCreated lists the Conferences an organizer has created, ordered by name.
+ *
+ * It is a materialized view of the ancestor query getConferencesCreated used to run. There is
+ * one per organizer, a child of the organizer's Profile, so createConference and updateConference
+ * keep it current in the transaction they already run on that entity group. The dashboard then
+ * costs one get of this entity plus a batch get of the Conferences, both usually served from
+ * memcache, instead of a query.
+ *
+ * The view of a user who has none yet, including one who never created a Conference, is built
+ * and saved on first use.
+ * Deleting a view makes the next use rebuild it from the Conferences.
+ */
+@Entity
+@Cache
+public class ConferencesCreated {
+
+    private static final long ID = 1;
+
+    /**
+     * A Conference of the view, with the name it is ordered by.
+     */
+    public static class Item {
+
+        private Key<Conference> conferenceKey;
+
+        private String name;
+
+        private Item() {}
+
+        private Item(Conference conference) {
+            this.conferenceKey = Key.create(conference.getWebsafeKey());
+            this.name = conference.getName() == null ? "" : conference.getName();
+        }
+    }
+
+    /**
+     * There is a single view per organizer.
+     */
+    @Id
+    private long id = ID;
+
+    @Parent
+    private Key<Profile> profileKey;
+
+    /**
+     * The Conferences, ordered by name and then by key, as the ancestor query was.
+     */
+    private List<Item> items = new ArrayList<>(0);
+
+    /**
+     * Just making the default constructor private.
+     */
+    private ConferencesCreated() {}
+
+    private ConferencesCreated(Key<Profile> profileKey) {
+        this.profileKey = profileKey;
+    }
+
+    /**
+     * Returns the key of the view of an organizer.
+     *
+     * @param profileKey The key of the organizer's Profile.
+     * @return the key of the ConferencesCreated.
+     */
+    public static Key<ConferencesCreated> keyOf(Key<Profile> profileKey) {
+        return Key.create(profileKey, ConferencesCreated.class, ID);
+    }
+
+    /**
+     * Returns the view of an organizer, building and saving it when it is missing.
+     *
+     * @param profileKey The key of the organizer's Profile.
+     * @return the ConferencesCreated.
+     */
+    public static ConferencesCreated get(final Key<Profile> profileKey) {
+        ConferencesCreated view = ofy().load().key(keyOf(profileKey)).now();
+        if (view != null) {
+            return view;
+        }
+        return Transactions.run(Operation.BUILD_CONFERENCES_CREATED, profileKey,
+                new Work<ConferencesCreated>() {
+            @Override
+            public ConferencesCreated run() {
+                ConferencesCreated view = ofy().load().key(keyOf(profileKey)).now();
+                if (view == null) {
+                    view = rebuild(profileKey);
+                    // Save empty views too, so that the next use of the dashboard by someone
+                    // who never created a Conference is a get, without a query.
+                    ofy().save().entity(view).now();
+                }
+                return view;
+            }
+        });
+    }
+
+    /**
+     * Builds the view of an organizer from the ancestor query on its Conferences.
+     *
+     * Ancestor queries are strongly consistent, so the view has every Conference saved so far.
+     *
+     * @param profileKey The key of the organizer's Profile.
+     * @return a new ConferencesCreated, not saved yet.
+     */
+    public static ConferencesCreated rebuild(Key<Profile> profileKey) {
+        ConferencesCreated view = new ConferencesCreated(profileKey);
+        for (Conference conference
+                : ofy().load().type(Conference.class).ancestor(profileKey).order("name")) {
+            view.items.add(new Item(conference));
+        }
+        return view;
+    }
+
+    /**
+     * Adds a new Conference to the view, or moves an updated one to where its name belongs.
+     *
+     * @param conference The Conference just created or updated.
+     */
+    public void put(Conference conference) {
+        Item item = new Item(conference);
+        for (Iterator<Item> iterator = items.iterator(); iterator.hasNext();) {
+            if (iterator.next().conferenceKey.equals(item.conferenceKey)) {
+                iterator.remove();
+            }
+        }
+        int index = 0;
+        while (index < items.size() && compare(items.get(index), item) < 0) {
+            index++;
+        }
+        items.add(index, item);
+    }
+
+    /**
+     * Returns the keys of the Conferences, ordered by name.
+     *
+     * @return a List of Conference keys.
+     */
+    public List<Key<Conference>> getConferenceKeys() {
+        List<Key<Conference>> keys = new ArrayList<>(items.size());
+        for (Item item : items) {
+            keys.add(item.conferenceKey);
+        }
+        return Collections.unmodifiableList(keys);
+    }
+
+    private static int compare(Item a, Item b) {
+        int byName = a.name.compareTo(b.name);
+        return byName != 0 ? byName : a.conferenceKey.compareTo(b.conferenceKey);
+    }
+}
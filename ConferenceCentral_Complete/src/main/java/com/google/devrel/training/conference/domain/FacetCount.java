@@ -0,0 +1,253 @@
+package com.google.devrel.training.conference.domain;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.common.collect.Iterables;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Field;
+import com.google.devrel.training.conference.service.Transactions;
+import com.google.devrel.training.conference.service.Transactions.Operation;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.LoadResult;
+import com.googlecode.objectify.VoidWork;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * FacetCount stores the number of Conferences having a given value for a filterable field.
+ *
+ * The counts are maintained incrementally by a task enqueued from createConference and
+ * updateConference, so the filter UI can show them without running the queries. The task calls
+ * applyUpdate, which records each change it applies in a FacetUpdate, so a retry of the task
+ * doesn't count it twice. recountAll counts all the Conferences again, for the ones saved
+ * before there were FacetCounts.
+ */
+@Entity
+@Cache
+public class FacetCount {
+
+    private static final Logger LOG = Logger.getLogger(FacetCount.class.getName());
+
+    private static final String SEPARATOR = ":";
+
+    /**
+     * A cross-group transaction spans at most 5 entity groups, one of them the FacetUpdate.
+     */
+    private static final int MAX_COUNTS_PER_TRANSACTION = 4;
+
+    private static final int BATCH_SIZE = 500;
+
+    /**
+     * Use the field name and the value joined by SEPARATOR as the datastore key.
+     */
+    @Id
+    private String id;
+
+    /**
+     * The field of Conference this facet counts.
+     */
+    private Field field;
+
+    /**
+     * The value of the field.
+     */
+    private String value;
+
+    /**
+     * Number of Conferences with the value.
+     */
+    private long count;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private FacetCount() {}
+
+    /**
+     * Public constructor for FacetCount, starting from zero.
+     * @param id The datastore key, as returned by createId.
+     */
+    public FacetCount(String id) {
+        int separatorIndex = id.indexOf(SEPARATOR);
+        if (separatorIndex < 0) {
+            throw new IllegalArgumentException("Invalid FacetCount id: " + id);
+        }
+        this.id = id;
+        this.field = Field.valueOf(id.substring(0, separatorIndex));
+        this.value = id.substring(separatorIndex + 1);
+    }
+
+    /**
+     * Returns the datastore key name for the given field and value.
+     *
+     * @param field The field of Conference.
+     * @param value The value of the field.
+     * @return the key name of the FacetCount.
+     */
+    public static String createId(Field field, String value) {
+        return field.name() + SEPARATOR + value;
+    }
+
+    /**
+     * Returns the ids of all FacetCounts the given Conference contributes to.
+     *
+     * @param conference The Conference.
+     * @return a Set of FacetCount ids.
+     */
+    public static Set<String> idsOf(Conference conference) {
+        Set<String> ids = new HashSet<>();
+        if (conference.getCity() != null) {
+            ids.add(createId(Field.CITY, conference.getCity()));
+        }
+        if (conference.getTopics() != null) {
+            for (String topic : conference.getTopics()) {
+                ids.add(createId(Field.TOPIC, topic));
+            }
+        }
+        // Month is 0 when the Conference has no startDate.
+        if (conference.getMonth() != 0) {
+            ids.add(createId(Field.MONTH, String.valueOf(conference.getMonth())));
+        }
+        return ids;
+    }
+
+    /**
+     * Applies a change of the FacetCounts, once however many times it is called with the same
+     * updateId. The counts are changed MAX_COUNTS_PER_TRANSACTION at a time, each part in a
+     * transaction which saves the FacetUpdate recording it.
+     *
+     * @param updateId The id of the change, the same for all the tries of its task.
+     * @param addIds The ids of the FacetCounts a Conference was added to, or null.
+     * @param removeIds The ids of the FacetCounts a Conference was removed from, or null.
+     */
+    public static void applyUpdate(String updateId, String[] addIds, String[] removeIds) {
+        Map<String, Long> deltas = new LinkedHashMap<>();
+        addDeltas(deltas, addIds, 1);
+        addDeltas(deltas, removeIds, -1);
+        int part = 0;
+        for (List<Map.Entry<String, Long>> entries
+                : Iterables.partition(deltas.entrySet(), MAX_COUNTS_PER_TRANSACTION)) {
+            applyPart(FacetUpdate.createId(updateId, part++), entries);
+        }
+    }
+
+    private static void addDeltas(Map<String, Long> deltas, String[] ids, long delta) {
+        if (ids == null) {
+            return;
+        }
+        for (String id : ids) {
+            Long sum = deltas.get(id);
+            deltas.put(id, sum == null ? delta : sum + delta);
+        }
+    }
+
+    private static void applyPart(String facetUpdateId,
+                                  final List<Map.Entry<String, Long>> entries) {
+        final Key<FacetUpdate> facetUpdateKey = FacetUpdate.keyOf(facetUpdateId);
+        final List<Key<FacetCount>> keys = new ArrayList<>(entries.size());
+        for (Map.Entry<String, Long> entry : entries) {
+            keys.add(Key.create(FacetCount.class, entry.getKey()));
+        }
+        // Counted on the first FacetCount, as the FacetUpdate is a new entity group every time.
+        Transactions.run(Operation.UPDATE_FACET_COUNT, keys.get(0), new VoidWork() {
+            @Override
+            public void vrun() {
+                // Start all loads before using any, so that they go in one batch get.
+                LoadResult<FacetUpdate> facetUpdateLoad = ofy().load().key(facetUpdateKey);
+                Map<Key<FacetCount>, FacetCount> facetCounts = ofy().load().keys(keys);
+                if (facetUpdateLoad.now() != null) {
+                    // Applied by an earlier try of the task.
+                    return;
+                }
+                List<FacetCount> saves = new ArrayList<>();
+                List<FacetCount> deletes = new ArrayList<>();
+                for (int i = 0; i < entries.size(); i++) {
+                    FacetCount facetCount = facetCounts.get(keys.get(i));
+                    if (facetCount == null) {
+                        facetCount = new FacetCount(entries.get(i).getKey());
+                    }
+                    long delta = entries.get(i).getValue();
+                    if (facetCount.getCount() + delta < 0) {
+                        // A removal without the addition, which only drift explains.
+                        LOG.warning("FacetCount " + facetCount.id + " would be negative: "
+                                + (facetCount.getCount() + delta) + ", run the recount");
+                    }
+                    facetCount.addToCount(delta);
+                    if (facetCount.getCount() == 0) {
+                        deletes.add(facetCount);
+                    } else {
+                        saves.add(facetCount);
+                    }
+                }
+                ofy().delete().entities(deletes).now();
+                ofy().save().entities(saves).now();
+                ofy().save().entity(new FacetUpdate(facetUpdateKey.getName())).now();
+            }
+        });
+    }
+
+    /**
+     * Counts all the Conferences again, and replaces the FacetCounts with the result.
+     *
+     * The Conferences are read by a query, which is eventually consistent, and the FacetCounts
+     * are overwritten outside of a transaction. A Conference created or edited while this runs
+     * may be counted wrong, so run it while there are none, such as right after deploying.
+     */
+    public static void recountAll() {
+        Map<String, Long> counts = new HashMap<>();
+        for (Conference conference
+                : ofy().load().type(Conference.class).chunk(BATCH_SIZE).iterable()) {
+            addDeltas(counts, idsOf(conference).toArray(new String[0]), 1);
+        }
+        List<Key<FacetCount>> deletes = new ArrayList<>();
+        for (Key<FacetCount> key
+                : ofy().load().type(FacetCount.class).chunk(BATCH_SIZE).keys()) {
+            if (!counts.containsKey(key.getName())) {
+                deletes.add(key);
+            }
+        }
+        List<FacetCount> saves = new ArrayList<>(counts.size());
+        for (Map.Entry<String, Long> count : counts.entrySet()) {
+            FacetCount facetCount = new FacetCount(count.getKey());
+            facetCount.count = count.getValue();
+            saves.add(facetCount);
+        }
+        for (List<Key<FacetCount>> batch : Iterables.partition(deletes, BATCH_SIZE)) {
+            ofy().delete().keys(batch).now();
+        }
+        for (List<FacetCount> batch : Iterables.partition(saves, BATCH_SIZE)) {
+            ofy().save().entities(batch).now();
+        }
+    }
+
+    public Field getField() {
+        return field;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Adds the given delta to the count, clamped at zero. applyUpdate logs a drift which the
+     * clamp hides, and recountAll repairs it.
+     *
+     * @param delta The number of Conferences added, or negative when removed.
+     */
+    public void addToCount(long delta) {
+        count = Math.max(0, count + delta);
+    }
+}
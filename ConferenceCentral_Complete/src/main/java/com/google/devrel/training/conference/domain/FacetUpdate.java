@@ -0,0 +1,71 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+
+import java.util.Date;
+
+/**
+ * FacetUpdate records that a change of the FacetCounts was applied, so that a retry of the task
+ * which applies it doesn't count it twice.
+ *
+ * FacetCount.applyUpdate saves it in the transaction which changes the counts, and skips the
+ * change when it is already there. Records expire after TTL_MILLIS, and are purged by a cron
+ * job.
+ */
+@Entity
+public class FacetUpdate {
+
+    /**
+     * How long a retry is recognized for. Tasks are retried within minutes, this leaves a week.
+     */
+    public static final long TTL_MILLIS = 7 * 24 * 60 * 60 * 1000L;
+
+    /**
+     * The id of the update, and the index of the part of it applied in the transaction.
+     */
+    @Id
+    private String id;
+
+    /**
+     * When the record stops being used. Indexed for the purge.
+     */
+    @Index
+    private Date expiresAt;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private FacetUpdate() {}
+
+    /**
+     * Public constructor for FacetUpdate, expiring TTL_MILLIS from now.
+     *
+     * @param id The id of the update, as returned by createId.
+     */
+    public FacetUpdate(String id) {
+        this.id = id;
+        this.expiresAt = new Date(System.currentTimeMillis() + TTL_MILLIS);
+    }
+
+    /**
+     * Returns the datastore key name of a part of an update.
+     *
+     * @param updateId The id of the update.
+     * @param part The index of the part.
+     * @return the key name of the FacetUpdate.
+     */
+    public static String createId(String updateId, int part) {
+        return updateId + ":" + part;
+    }
+
+    public static Key<FacetUpdate> keyOf(String id) {
+        return Key.create(FacetUpdate.class, id);
+    }
+
+    public Date getExpiresAt() {
+        return new Date(expiresAt.getTime());
+    }
+}
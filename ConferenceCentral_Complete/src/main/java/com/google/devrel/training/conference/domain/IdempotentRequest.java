@@ -0,0 +1,142 @@
+package com.google.devrel.training.conference.domain;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.Parent;
+
+import java.util.Date;
+
+/**
+ * IdempotentRequest records the result of a write made with a client-supplied idempotency key,
+ * so that a retry of the request returns that result instead of writing again.
+ *
+ * It is a child of the user's Profile, so the write saves it in the transaction it already runs
+ * on that entity group, and two concurrent tries of a request can't both write. A retry first
+ * looks it up outside of any transaction, usually from memcache, and only runs the transaction
+ * when it is missing. Records expire after TTL_MILLIS, and are purged by a cron job.
+ */
+@Entity
+@Cache
+public class IdempotentRequest {
+
+    /**
+     * How long a retry is recognized for. Clients retry within seconds, this leaves a day.
+     */
+    public static final long TTL_MILLIS = 24 * 60 * 60 * 1000L;
+
+    /**
+     * The longest idempotency key accepted.
+     */
+    public static final int MAX_KEY_LENGTH = 100;
+
+    private static final String SEPARATOR = ":";
+
+    /**
+     * Use the operation and the idempotency key joined by SEPARATOR as the datastore key, so
+     * that the same key sent to two operations doesn't mix their results.
+     */
+    @Id
+    private String id;
+
+    @Parent
+    private Key<Profile> profileKey;
+
+    /**
+     * The result of the request, as a websafe key.
+     */
+    private String result;
+
+    /**
+     * When the record stops being used. Indexed for the purge.
+     */
+    @Index
+    private Date expiresAt;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private IdempotentRequest() {}
+
+    /**
+     * Public constructor for IdempotentRequest, expiring TTL_MILLIS from now.
+     *
+     * @param profileKey The key of the Profile of the user who sent the request.
+     * @param operation The name of the API method.
+     * @param idempotencyKey The idempotency key sent by the client.
+     * @param result The result of the request, as a websafe key.
+     */
+    public IdempotentRequest(Key<Profile> profileKey, String operation, String idempotencyKey,
+                             String result) {
+        this.profileKey = profileKey;
+        this.id = createId(operation, idempotencyKey);
+        this.result = result;
+        this.expiresAt = new Date(System.currentTimeMillis() + TTL_MILLIS);
+    }
+
+    /**
+     * Returns the key of the record of a request.
+     *
+     * @param profileKey The key of the Profile of the user who sent the request.
+     * @param operation The name of the API method.
+     * @param idempotencyKey The idempotency key sent by the client.
+     * @return the key of the IdempotentRequest.
+     */
+    public static Key<IdempotentRequest> keyOf(Key<Profile> profileKey, String operation,
+                                               String idempotencyKey) {
+        return Key.create(profileKey, IdempotentRequest.class,
+                createId(operation, idempotencyKey));
+    }
+
+    /**
+     * Returns the result recorded for a request, if it has not expired. Loads through the
+     * current transaction, if any.
+     *
+     * @param profileKey The key of the Profile of the user who sent the request.
+     * @param operation The name of the API method.
+     * @param idempotencyKey The idempotency key sent by the client, or null.
+     * @return the recorded result, or null when there is none or no idempotency key.
+     */
+    public static String resultOf(Key<Profile> profileKey, String operation,
+                                  String idempotencyKey) {
+        if (idempotencyKey == null) {
+            return null;
+        }
+        IdempotentRequest request =
+                ofy().load().key(keyOf(profileKey, operation, idempotencyKey)).now();
+        if (request == null || request.expiresAt.getTime() < System.currentTimeMillis()) {
+            return null;
+        }
+        return request.result;
+    }
+
+    /**
+     * Checks that an idempotency key, when given, can be used.
+     *
+     * @param idempotencyKey The idempotency key sent by the client, or null.
+     * @throws IllegalArgumentException when the key is empty or longer than MAX_KEY_LENGTH.
+     */
+    public static void checkKey(String idempotencyKey) {
+        if (idempotencyKey != null
+                && (idempotencyKey.isEmpty() || idempotencyKey.length() > MAX_KEY_LENGTH)) {
+            throw new IllegalArgumentException(
+                    "The idempotency key must have 1 to " + MAX_KEY_LENGTH + " characters.");
+        }
+    }
+
+    private static String createId(String operation, String idempotencyKey) {
+        return operation + SEPARATOR + idempotencyKey;
+    }
+
+    public String getResult() {
+        return result;
+    }
+
+    public Date getExpiresAt() {
+        return new Date(expiresAt.getTime());
+    }
+}
@@ -2,16 +2,27 @@ package com.google.devrel.training.conference.domain;
 
 import com.google.common.collect.ImmutableList;
 import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+import com.google.devrel.training.conference.service.VersionCache;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.OnSave;
 
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 
 /**
  * Profile class stores user's profile data.
+ *
+ * Profiles are kept in the Objectify global cache, which also remembers the keys it found no
+ * entity for. So the lookups of a user who has never saved a Profile, which getProfile does on
+ * every page of a first-time visitor, only reach the datastore once. Any save through Objectify,
+ * including the ones in transactions, replaces the cached miss.
  */
 @Entity
+@Cache
 public class Profile {
     /**
      *  Use userId as the datastore key.
@@ -40,6 +51,16 @@ public class Profile {
      */
     private List<String> conferenceKeysToAttend = new ArrayList<>(0);
 
+    /**
+     * Incremented on every save, so that clients can tell whether their copy is current.
+     */
+    private long version;
+
+    /**
+     * When the Profile was last saved.
+     */
+    private Date updatedAt;
+
     /**
      * Just making the default constructor private.
      */
@@ -99,6 +120,29 @@ public class Profile {
         return ImmutableList.copyOf(conferenceKeysToAttend);
     }
 
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns a defensive copy of updatedAt if not null.
+     * @return a defensive copy of updatedAt if not null.
+     */
+    public Date getUpdatedAt() {
+        return updatedAt == null ? null : new Date(updatedAt.getTime());
+    }
+
+    /**
+     * Bumps the version before every save, and publishes it to VersionCache once saved. Saves go
+     * through a transaction, so that two of them don't save the same version.
+     */
+    @OnSave
+    private void bumpVersion() {
+        version++;
+        updatedAt = new Date();
+        VersionCache.publish(Key.create(Profile.class, userId), version);
+    }
+
     /**
      * Update the Profile with the given displayName and teeShirtSize
      * @param displayName
@@ -0,0 +1,94 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * Describes how a Conference query was served and what it cost.
+ */
+public class QueryExplanation {
+
+    /**
+     * The filter shape of the query, with the values left out.
+     */
+    private String shape;
+
+    /**
+     * How the indexes serve the shape: BUILT_IN, COMPOSITE, MERGE_JOIN or NOT_SERVED, or UNKNOWN
+     * when datastore-indexes.xml could not be read.
+     */
+    private String plan;
+
+    /**
+     * The composite indexes the plan uses.
+     */
+    private List<String> indexes;
+
+    private int keysScanned;
+
+    private int entitiesReturned;
+
+    private boolean truncated;
+
+    /**
+     * The number of API calls the query made, to the datastore and memcache included.
+     */
+    private int rpcCount;
+
+    private long wallTimeMillis;
+
+    public QueryExplanation() {}
+
+    public QueryExplanation(String shape, String plan, List<String> indexes, int keysScanned,
+                            int entitiesReturned, boolean truncated, int rpcCount,
+                            long wallTimeMillis) {
+        this.shape = shape;
+        this.plan = plan;
+        this.indexes = ImmutableList.copyOf(indexes);
+        this.keysScanned = keysScanned;
+        this.entitiesReturned = entitiesReturned;
+        this.truncated = truncated;
+        this.rpcCount = rpcCount;
+        this.wallTimeMillis = wallTimeMillis;
+    }
+
+    public String getShape() {
+        return shape;
+    }
+
+    public String getPlan() {
+        return plan;
+    }
+
+    public List<String> getIndexes() {
+        return indexes;
+    }
+
+    public int getKeysScanned() {
+        return keysScanned;
+    }
+
+    public int getEntitiesReturned() {
+        return entitiesReturned;
+    }
+
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    public int getRpcCount() {
+        return rpcCount;
+    }
+
+    public long getWallTimeMillis() {
+        return wallTimeMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "shape=[" + shape + "] plan=" + plan + " indexes=" + indexes + " keysScanned="
+                + keysScanned + " entitiesReturned=" + entitiesReturned + " truncated="
+                + truncated + " rpcCount=" + rpcCount + " wallTimeMillis=" + wallTimeMillis;
+    }
+}
@@ -0,0 +1,189 @@
+package com.google.devrel.training.conference.domain;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.service.Transactions;
+import com.google.devrel.training.conference.service.Transactions.Operation;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.LoadResult;
+import com.googlecode.objectify.VoidWork;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Parent;
+
+import java.util.Collection;
+import java.util.Date;
+
+/**
+ * Registration records that a user booked a seat of a Conference.
+ *
+ * It is a child of the Conference, so registerForConference and unregisterFromConference save
+ * it and the seat count in a transaction on that single entity group. The attendee's
+ * Profile.conferenceKeysToAttend follows it through a task, which calls syncProfile, and may lag
+ * behind it for a moment. The Registration is what decides whether the user is registered,
+ * except for the registrations taken before there were Registrations, which are only in the
+ * Profile until BackfillRegistrationsServlet has run: see isLegacy and legacyRegistrations.
+ */
+@Entity
+@Cache
+public class Registration {
+
+    private static final String SYNC_URL = "/tasks/sync_conferences_to_attend";
+
+    private static final String LEGACY_PROPERTY = "conference.registrations.legacy";
+
+    /**
+     * Use the attendee's userId as the datastore key, so a user registers at most once.
+     */
+    @Id
+    private String userId;
+
+    @Parent
+    private Key<Conference> conferenceKey;
+
+    private Date registeredAt;
+
+    /**
+     * The idempotency key of the request which registered, if it had one, so that its retries
+     * can be told from a second registration.
+     */
+    private String idempotencyKey;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private Registration() {}
+
+    /**
+     * Public constructor for Registration.
+     *
+     * @param conferenceKey The key of the Conference.
+     * @param userId The userId of the attendee.
+     * @param idempotencyKey The idempotency key of the request, or null.
+     */
+    public Registration(Key<Conference> conferenceKey, String userId, String idempotencyKey) {
+        this.conferenceKey = conferenceKey;
+        this.userId = userId;
+        this.idempotencyKey = idempotencyKey;
+        this.registeredAt = new Date();
+    }
+
+    /**
+     * Returns the key of the Registration of a user to a Conference.
+     *
+     * @param conferenceKey The key of the Conference.
+     * @param userId The userId of the attendee.
+     * @return the key of the Registration.
+     */
+    public static Key<Registration> keyOf(Key<Conference> conferenceKey, String userId) {
+        return Key.create(conferenceKey, Registration.class, userId);
+    }
+
+    /**
+     * Tells whether there may still be registrations taken before there were Registrations,
+     * which is the case until the conference.registrations.legacy system property is set to
+     * false, once BackfillRegistrationsServlet has run.
+     *
+     * While there may be, unregistering drops the Conference from the Profile in its own
+     * transaction rather than through the task, so the Profile never lists a Conference without
+     * a Registration for another reason, and the registrations are checked with isLegacy.
+     *
+     * @return true when the Profiles have to be read for the registrations.
+     */
+    public static boolean legacyRegistrations() {
+        return !"false".equals(System.getProperty(LEGACY_PROPERTY));
+    }
+
+    /**
+     * Tells whether a user registered for a Conference before there were Registrations, and has
+     * no Registration for it yet. Their Profile lists the Conference, which it otherwise does
+     * only while the Registration exists, as long as legacyRegistrations is true.
+     *
+     * A Profile can't start to list a Conference without a Registration, so the check may be
+     * made before the transaction which registers; unregistering has to make it within its
+     * transaction.
+     *
+     * @param registration The Registration of the user, or null.
+     * @param profile The Profile of the user, or null.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return true when the Profile alone records the registration.
+     */
+    public static boolean isLegacy(Registration registration, Profile profile,
+                                   String websafeConferenceKey) {
+        return registration == null && profile != null
+                && profile.getConferenceKeysToAttend().contains(websafeConferenceKey);
+    }
+
+    /**
+     * Enqueues a task for bringing the Profiles of attendees up to date with their Registrations
+     * to a Conference, within the current transaction.
+     *
+     * @param queue The Queue to add the task to.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @param userIds The userIds of the attendees.
+     */
+    public static void enqueueProfileSync(Queue queue, String websafeConferenceKey,
+                                          Collection<String> userIds) {
+        TaskOptions taskOptions = TaskOptions.Builder.withUrl(SYNC_URL)
+                .param("websafeConferenceKey", websafeConferenceKey);
+        for (String userId : userIds) {
+            taskOptions.param("userId", userId);
+        }
+        queue.add(ofy().getTransaction(), taskOptions);
+    }
+
+    /**
+     * Makes the attendee's Profile.conferenceKeysToAttend agree with whether the Registration
+     * exists. The task for a registration may run after the unregistration, or after another
+     * task, as it reads the Registration and the Profile together in a cross-group transaction.
+     *
+     * @param userId The userId of the attendee.
+     * @param conferenceKey The key of the Conference.
+     */
+    public static void syncProfile(String userId, final Key<Conference> conferenceKey) {
+        final Key<Registration> registrationKey = keyOf(conferenceKey, userId);
+        final Key<Profile> profileKey = Key.create(Profile.class, userId);
+        final String websafeConferenceKey = conferenceKey.getString();
+        Transactions.run(Operation.SYNC_CONFERENCES_TO_ATTEND, profileKey, new VoidWork() {
+            @Override
+            public void vrun() {
+                // Start both loads before using any, so that they go in one batch get.
+                LoadResult<Registration> registrationLoad = ofy().load().key(registrationKey);
+                LoadResult<Profile> profileLoad = ofy().load().key(profileKey);
+                boolean registered = registrationLoad.now() != null;
+                Profile profile = profileLoad.now();
+                if (profile == null) {
+                    return;
+                }
+                boolean listed = profile.getConferenceKeysToAttend().contains(websafeConferenceKey);
+                if (registered && !listed) {
+                    profile.addToConferenceKeysToAttend(websafeConferenceKey);
+                } else if (!registered && listed) {
+                    profile.unregisterFromConference(websafeConferenceKey);
+                } else {
+                    return;
+                }
+                ofy().save().entity(profile).now();
+            }
+        });
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public Key<Conference> getConferenceKey() {
+        return conferenceKey;
+    }
+
+    public Date getRegisteredAt() {
+        return registeredAt == null ? null : new Date(registeredAt.getTime());
+    }
+
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+}
@@ -0,0 +1,64 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.api.server.spi.config.AnnotationBoolean;
+import com.google.api.server.spi.config.ApiResourceProperty;
+
+import java.io.Serializable;
+
+/**
+ * A suggestion for completing a conference name or topic the user is typing.
+ */
+public class Suggestion implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Enum representing what the suggestion completes.
+     */
+    public static enum Type {
+        NAME, TOPIC
+    }
+
+    /**
+     * The normalized term this suggestion is found by.
+     */
+    private String term;
+
+    /**
+     * The text to suggest.
+     */
+    private String text;
+
+    private Type type;
+
+    /**
+     * The websafe key of the Conference this suggestion comes from.
+     */
+    private String websafeConferenceKey;
+
+    public Suggestion() {}
+
+    public Suggestion(String term, String text, Type type, String websafeConferenceKey) {
+        this.term = term;
+        this.text = text;
+        this.type = type;
+        this.websafeConferenceKey = websafeConferenceKey;
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public String getTerm() {
+        return term;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getWebsafeConferenceKey() {
+        return websafeConferenceKey;
+    }
+}
@@ -0,0 +1,76 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.Parent;
+
+import java.util.Date;
+
+/**
+ * WaitlistEntry records that a user waits for a seat of a sold out Conference.
+ *
+ * Like Registration, it is a child of the Conference keyed by the user's userId, so joining and
+ * leaving the waitlist, and promoting from it, are transactions on the Conference's entity group.
+ * The waitlist is first in, first out: WaitlistService.promote, which PromoteWaitlistServlet
+ * runs for each promotion task, promotes the entries in the order of joinedAt, and then of
+ * userId.
+ */
+@Entity
+@Cache
+public class WaitlistEntry {
+
+    @Id
+    private String userId;
+
+    @Parent
+    private Key<Conference> conferenceKey;
+
+    /**
+     * When the user joined the waitlist. Indexed with the Conference for the promotion order.
+     */
+    @Index
+    private Date joinedAt;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private WaitlistEntry() {}
+
+    /**
+     * Public constructor for WaitlistEntry.
+     *
+     * @param conferenceKey The key of the Conference.
+     * @param userId The userId of the user waiting.
+     */
+    public WaitlistEntry(Key<Conference> conferenceKey, String userId) {
+        this.conferenceKey = conferenceKey;
+        this.userId = userId;
+        this.joinedAt = new Date();
+    }
+
+    /**
+     * Returns the key of the WaitlistEntry of a user for a Conference.
+     *
+     * @param conferenceKey The key of the Conference.
+     * @param userId The userId of the user waiting.
+     * @return the key of the WaitlistEntry.
+     */
+    public static Key<WaitlistEntry> keyOf(Key<Conference> conferenceKey, String userId) {
+        return Key.create(conferenceKey, WaitlistEntry.class, userId);
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public Key<Conference> getConferenceKey() {
+        return conferenceKey;
+    }
+
+    public Date getJoinedAt() {
+        return joinedAt == null ? null : new Date(joinedAt.getTime());
+    }
+}
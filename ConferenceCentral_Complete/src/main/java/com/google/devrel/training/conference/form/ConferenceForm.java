@@ -44,6 +44,12 @@ public class ConferenceForm {
      */
     private int maxAttendees;
 
+    /**
+     * The editVersion of the Conference the form was filled from, for updateConference to check
+     * no other edit came in between. Null skips the check.
+     */
+    private Long editVersion;
+
     private ConferenceForm() {}
 
     /**
@@ -94,4 +100,19 @@ public class ConferenceForm {
     public int getMaxAttendees() {
         return maxAttendees;
     }
+
+    public Long getEditVersion() {
+        return editVersion;
+    }
+
+    /**
+     * Sets the editVersion of the Conference the form was filled from.
+     *
+     * @param editVersion The editVersion of the Conference.
+     * @return this for method chaining.
+     */
+    public ConferenceForm editVersion(long editVersion) {
+        this.editVersion = editVersion;
+        return this;
+    }
 }
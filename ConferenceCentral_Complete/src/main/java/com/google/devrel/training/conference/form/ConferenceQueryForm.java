@@ -4,14 +4,24 @@ import static com.google.devrel.training.conference.service.OfyService.ofy;
 
 import com.google.api.server.spi.config.AnnotationBoolean;
 import com.google.api.server.spi.config.ApiResourceProperty;
+import com.google.appengine.api.datastore.Cursor;
 import com.google.common.collect.ImmutableList;
 import com.google.devrel.training.conference.domain.Conference;
 
 import com.googlecode.objectify.cmd.Query;
 
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
 import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * A simple Java object (POJO) representing a query options for Conference.
@@ -24,7 +34,7 @@ public class ConferenceQueryForm {
      * Enum representing a field type.
      */
     public static enum FieldType {
-        STRING, INTEGER
+        STRING, INTEGER, DATE
     }
 
     /**
@@ -34,7 +44,11 @@ public class ConferenceQueryForm {
         CITY("city", FieldType.STRING),
         TOPIC("topics", FieldType.STRING),
         MONTH("month", FieldType.INTEGER),
-        MAX_ATTENDEES("maxAttendees", FieldType.INTEGER);
+        MAX_ATTENDEES("maxAttendees", FieldType.INTEGER),
+        START_DATE("startDate", FieldType.DATE),
+        END_DATE("endDate", FieldType.DATE),
+        YEAR_MONTH("yearMonth", FieldType.INTEGER),
+        ISO_WEEK("isoWeek", FieldType.INTEGER);
 
         private String fieldName;
 
@@ -45,7 +59,7 @@ public class ConferenceQueryForm {
             this.fieldType = fieldType;
         }
 
-        private String getFieldName() {
+        public String getFieldName() {
             return this.fieldName;
         }
     }
@@ -71,12 +85,64 @@ public class ConferenceQueryForm {
             return this.queryOperator;
         }
 
-        private boolean isInequalityFilter() {
+        public boolean isInequalityFilter() {
             return this.queryOperator.contains("<") || this.queryOperator.contains(">") ||
                     this.queryOperator.contains("!");
         }
     }
 
+    /**
+     * Enum representing a sort key. Each key sorts in the direction users expect.
+     */
+    public static enum SortKey {
+        NAME("name", false),
+        // Soonest first.
+        START_DATE("startDate", false),
+        // Largest first.
+        MAX_ATTENDEES("maxAttendees", true);
+
+        private String propertyName;
+
+        private boolean descending;
+
+        private SortKey(String propertyName, boolean descending) {
+            this.propertyName = propertyName;
+            this.descending = descending;
+        }
+
+        public String getPropertyName() {
+            return this.propertyName;
+        }
+
+        /**
+         * Returns the order string for Objectify, with a leading "-" when descending.
+         *
+         * @return the order string.
+         */
+        public String getOrder() {
+            return descending ? "-" + propertyName : propertyName;
+        }
+    }
+
+    /**
+     * Fields which can have an equality filter when sorting by a key other than NAME.
+     *
+     * Every such field needs a composite index per sort key, so they are limited to the ones
+     * the UI browses by.
+     */
+    public static final Set<Field> SORT_FILTER_FIELDS =
+            Collections.unmodifiableSet(EnumSet.of(Field.CITY, Field.TOPIC));
+
+    /**
+     * Fields holding the dates of a Conference, or buckets of them.
+     *
+     * Sorted by name, a query filters on at most one of them, and otherwise only has equality
+     * filters on SORT_FILTER_FIELDS, so that a composite index per field and date field serves
+     * every such query.
+     */
+    public static final Set<Field> DATE_FILTER_FIELDS = Collections.unmodifiableSet(
+            EnumSet.of(Field.START_DATE, Field.END_DATE, Field.YEAR_MONTH, Field.ISO_WEEK));
+
     /**
      * A class representing a single filter for the query.
      */
@@ -106,6 +172,45 @@ public class ConferenceQueryForm {
         }
     }
 
+    /**
+     * Formats accepted for the values of DATE fields: RFC 3339 with or without fractional
+     * seconds, or a date alone, interpreted in UTC.
+     */
+    private static final String[] DATE_FORMATS = {
+            "yyyy-MM-dd'T'HH:mm:ss.SSSXXX", "yyyy-MM-dd'T'HH:mm:ssXXX", "yyyy-MM-dd"};
+
+    /**
+     * The fractional seconds of an RFC 3339 date, which may have any number of digits.
+     */
+    private static final Pattern FRACTION = Pattern.compile(":\\d{2}\\.(\\d+)");
+
+    /**
+     * Parses the value of a DATE field.
+     *
+     * @param value A date in one of DATE_FORMATS.
+     * @return the parsed Date.
+     */
+    private static Date parseDate(String value) {
+        // SimpleDateFormat reads the fraction as a number of milliseconds, so make it 3 digits.
+        Matcher matcher = FRACTION.matcher(value);
+        if (matcher.find()) {
+            String millis = (matcher.group(1) + "00").substring(0, 3);
+            value = value.substring(0, matcher.start(1)) + millis
+                    + value.substring(matcher.end(1));
+        }
+        for (String dateFormat : DATE_FORMATS) {
+            SimpleDateFormat simpleDateFormat = new SimpleDateFormat(dateFormat);
+            simpleDateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+            simpleDateFormat.setLenient(false);
+            ParsePosition parsePosition = new ParsePosition(0);
+            Date date = simpleDateFormat.parse(value, parsePosition);
+            if (date != null && parsePosition.getIndex() == value.length()) {
+                return date;
+            }
+        }
+        throw new IllegalArgumentException("Invalid date: " + value);
+    }
+
     /**
      * A list of query filters.
      */
@@ -117,6 +222,21 @@ public class ConferenceQueryForm {
     @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
     private Filter inequalityFilter;
 
+    /**
+     * The key to sort by. Null sorts by the inequality field, if any, and then by name.
+     */
+    private SortKey sortKey;
+
+    /**
+     * The maximum number of results, or 0 for no limit.
+     */
+    private int limit;
+
+    /**
+     * The websafe cursor to continue a previous query from.
+     */
+    private String cursor;
+
     public ConferenceQueryForm() {}
 
     /**
@@ -135,6 +255,71 @@ public class ConferenceQueryForm {
         }
     }
 
+    /**
+     * Checks the filters are feasible with a sort key other than NAME. Inequality filters have to
+     * be on the sort key, and equality filters on SORT_FILTER_FIELDS.
+     */
+    private void checkSortKey() {
+        for (Filter filter : this.filters) {
+            if (filter.operator.isInequalityFilter()) {
+                if (!filter.field.getFieldName().equals(sortKey.getPropertyName())) {
+                    throw new IllegalArgumentException(
+                            "Inequality filter is only allowed on the sort key " + sortKey);
+                }
+            } else if (!SORT_FILTER_FIELDS.contains(filter.field)) {
+                throw new IllegalArgumentException(
+                        "Sorting by " + sortKey + " is not supported with a filter on "
+                                + filter.field);
+            }
+        }
+    }
+
+    /**
+     * Checks the filters are feasible with a filter on one of DATE_FILTER_FIELDS, sorted by name.
+     * The other filters have to be equality filters on SORT_FILTER_FIELDS.
+     */
+    private void checkDateFilters() {
+        Field dateField = null;
+        for (Filter filter : this.filters) {
+            if (!DATE_FILTER_FIELDS.contains(filter.field)) {
+                continue;
+            }
+            if (dateField != null && dateField != filter.field) {
+                throw new IllegalArgumentException(
+                        "Filters are allowed on only one of " + DATE_FILTER_FIELDS);
+            }
+            dateField = filter.field;
+        }
+        if (dateField == null) {
+            return;
+        }
+        for (Filter filter : this.filters) {
+            if (filter.field != dateField && (filter.operator.isInequalityFilter()
+                    || !SORT_FILTER_FIELDS.contains(filter.field))) {
+                throw new IllegalArgumentException(
+                        "A filter on " + dateField + " is not supported with a filter on "
+                                + filter.field);
+            }
+        }
+    }
+
+    /**
+     * Checks a query with a != filter isn't paged. The datastore runs it as one query per side of
+     * the value and merges them, and the merged results have no cursor to continue from.
+     */
+    private void checkPaging() {
+        if (limit == 0 && cursor == null) {
+            return;
+        }
+        for (Filter filter : this.filters) {
+            if (filter.operator == Operator.NE) {
+                throw new IllegalArgumentException(
+                        "A limit or a cursor is not supported with a != filter on "
+                                + filter.field);
+            }
+        }
+    }
+
     /**
      * Getter for filters.
      *
@@ -163,6 +348,51 @@ public class ConferenceQueryForm {
         return this;
     }
 
+    public SortKey getSortKey() {
+        return sortKey;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    /**
+     * Sets the sort key.
+     *
+     * @param sortKey The key to sort by.
+     * @return this for method chaining.
+     */
+    public ConferenceQueryForm sortBy(SortKey sortKey) {
+        this.sortKey = sortKey;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of results.
+     *
+     * @param limit The maximum number of results, or 0 for no limit.
+     * @return this for method chaining.
+     */
+    public ConferenceQueryForm limit(int limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    /**
+     * Sets the cursor to continue a previous query from.
+     *
+     * @param cursor A websafe cursor returned with the previous results.
+     * @return this for method chaining.
+     */
+    public ConferenceQueryForm startAt(String cursor) {
+        this.cursor = cursor;
+        return this;
+    }
+
     /**
      * Returns an Objectify Query object for the specified filters.
      *
@@ -172,15 +402,23 @@ public class ConferenceQueryForm {
     public Query<Conference> getQuery() {
         // First check the feasibility of inequality filters.
         checkFilters();
+        checkPaging();
         Query<Conference> query = ofy().load().type(Conference.class);
-        if (inequalityFilter == null) {
+        if (sortKey != null && sortKey != SortKey.NAME) {
+            checkSortKey();
+            query = query.order(sortKey.getOrder());
+        } else if (inequalityFilter == null) {
+            checkDateFilters();
             // Order by name.
             query = query.order("name");
         } else {
+            checkDateFilters();
             // If we have any inequality filters, order by the field first.
             query = query.order(inequalityFilter.field.getFieldName());
             query = query.order("name");
         }
+        // Finally order by key, so that the order is total and cursors are stable.
+        query = query.order("__key__");
         for (Filter filter : this.filters) {
             // Applies filters in order.
             if (filter.field.fieldType == FieldType.STRING) {
@@ -189,8 +427,17 @@ public class ConferenceQueryForm {
             } else if (filter.field.fieldType == FieldType.INTEGER) {
                 query = query.filter(String.format("%s %s", filter.field.getFieldName(),
                         filter.operator.getQueryOperator()), Integer.parseInt(filter.value));
+            } else if (filter.field.fieldType == FieldType.DATE) {
+                query = query.filter(String.format("%s %s", filter.field.getFieldName(),
+                        filter.operator.getQueryOperator()), parseDate(filter.value));
             }
         }
+        if (cursor != null) {
+            query = query.startAt(Cursor.fromWebSafeString(cursor));
+        }
+        if (limit > 0) {
+            query = query.limit(limit);
+        }
         LOG.info(query.toString());
         return query;
     }
@@ -0,0 +1,151 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.common.base.Joiner;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Announcement;
+import com.google.devrel.training.conference.domain.Conference;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Builds the announcement of nearly sold out Conferences, and caches it in memcache.
+ *
+ * The cron job refreshes the announcement every hour. When memcache has lost it, or the cron job
+ * is late, getAnnouncement rebuilds it through SingleFlight, so a single caller runs the query.
+ *
+ * Each instance also keeps the announcement for NEAR_CACHE_MILLIS, so that the home page, which
+ * polls it, does not cost a memcache call per page load. Only one request of an instance reads
+ * memcache again once that time is over, while the others keep being served the local copy. The
+ * instance running the cron job has the new announcement at once, the others within
+ * NEAR_CACHE_MILLIS. Every announcement is stamped with the time it was built, so that a slow
+ * memcache read never replaces a newer announcement with an older one.
+ */
+public class AnnouncementService {
+
+    /**
+     * How long an announcement is fresh in memcache. Matches the schedule of the cron job.
+     */
+    private static final long FRESH_MILLIS = 60 * 60 * 1000;
+
+    private static final long NEAR_CACHE_MILLIS = 30 * 1000;
+
+    /**
+     * An announcement message, or null for none, with the time it was built.
+     */
+    private static class Snapshot implements Serializable {
+
+        private final String message;
+
+        private final long builtAt;
+
+        private Snapshot(String message, long builtAt) {
+            this.message = message;
+            this.builtAt = builtAt;
+        }
+    }
+
+    private static final Callable<Snapshot> LOADER = new Callable<Snapshot>() {
+        @Override
+        public Snapshot call() {
+            return build();
+        }
+    };
+
+    private static final Object LOCK = new Object();
+
+    private static final AtomicBoolean RELOADING = new AtomicBoolean();
+
+    /**
+     * The instance-local copy of the announcement.
+     */
+    private static volatile Snapshot localSnapshot;
+
+    private static volatile long localSnapshotExpiresAt;
+
+    /**
+     * Returns the current announcement.
+     *
+     * @return the Announcement, or null when no Conference is nearly sold out.
+     */
+    public static Announcement get() {
+        Snapshot snapshot = localSnapshot;
+        if (snapshot == null) {
+            snapshot = reload();
+        } else if (System.currentTimeMillis() >= localSnapshotExpiresAt
+                && RELOADING.compareAndSet(false, true)) {
+            try {
+                snapshot = reload();
+            } finally {
+                RELOADING.set(false);
+            }
+        }
+        return snapshot.message == null ? null : new Announcement(snapshot.message);
+    }
+
+    /**
+     * Rebuilds the announcement and caches it.
+     */
+    public static void refresh() {
+        Snapshot snapshot = build();
+        SingleFlight.put(Constants.MEMCACHE_ANNOUNCEMENTS_KEY, snapshot, FRESH_MILLIS);
+        publish(snapshot);
+    }
+
+    /**
+     * Drops the instance-local copy of the announcement, so the next call reads memcache again.
+     */
+    public static void invalidate() {
+        localSnapshot = null;
+    }
+
+    private static Snapshot reload() {
+        return publish(SingleFlight.get(Constants.MEMCACHE_ANNOUNCEMENTS_KEY, LOADER,
+                FRESH_MILLIS));
+    }
+
+    /**
+     * Makes a snapshot the local copy, unless the local copy is newer.
+     *
+     * @return the local copy.
+     */
+    private static Snapshot publish(Snapshot snapshot) {
+        synchronized (LOCK) {
+            Snapshot current = localSnapshot;
+            if (current == null || snapshot.builtAt >= current.builtAt) {
+                current = snapshot;
+            }
+            localSnapshotExpiresAt = System.currentTimeMillis() + NEAR_CACHE_MILLIS;
+            localSnapshot = current;
+            return current;
+        }
+    }
+
+    /**
+     * Builds the announcement from the datastore.
+     */
+    private static Snapshot build() {
+        long builtAt = System.currentTimeMillis();
+        // Query for conferences which are nearly sold out. Only those have seatsAvailable indexed.
+        Iterable<Conference> iterable = ofy().load().type(Conference.class)
+                .filter("seatsAvailable <", Conference.NEARLY_SOLD_OUT_SEATS)
+                .filter("seatsAvailable >", 0);
+        List<String> conferenceNames = new ArrayList<>(0);
+        for (Conference conference : iterable) {
+            conferenceNames.add(conference.getName());
+        }
+        if (conferenceNames.isEmpty()) {
+            return new Snapshot(null, builtAt);
+        }
+        StringBuilder announcementStringBuilder = new StringBuilder(
+                "Last chance to attend! The following conferences are nearly sold out: ");
+        Joiner joiner = Joiner.on(", ").skipNulls();
+        announcementStringBuilder.append(joiner.join(conferenceNames));
+        return new Snapshot(announcementStringBuilder.toString(), builtAt);
+    }
+}
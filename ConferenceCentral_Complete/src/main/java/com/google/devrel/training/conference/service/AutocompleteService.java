@@ -0,0 +1,365 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.AutocompleteTerm;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Suggestion;
+import com.googlecode.objectify.Key;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * Serves name and topic suggestions from a prefix table over all Conferences.
+ *
+ * Each instance keeps the table in memory, as a sorted map from the terms to the suggestions,
+ * so a lookup is a range over the map and makes no RPC. The terms are stored in the datastore,
+ * as the AutocompleteTerms of each Conference, which an instance loads on its first lookup or
+ * warmup request.
+ *
+ * After that the instance follows the writes incrementally: a write saves the terms of the
+ * Conference in its transaction, and then counts a new generation in memcache and puts the
+ * terms under it. At most every CHECK_MILLIS, a lookup reads the current generation and applies
+ * the changes this instance has not seen, so the other instances see a write within about
+ * CHECK_MILLIS, and the instance which made it at once. An instance which can't catch up, as
+ * memcache lost a change or the generation, loads the whole table again, and serves the old
+ * one meanwhile.
+ */
+public class AutocompleteService {
+
+    private static final Logger LOG = Logger.getLogger(AutocompleteService.class.getName());
+
+    public static final int MAX_SUGGESTIONS = 10;
+
+    /**
+     * How often an instance looks for the writes of the others.
+     */
+    private static final long CHECK_MILLIS = 2 * 1000;
+
+    /**
+     * How long a change is kept for the instances to apply.
+     */
+    private static final int CHANGE_EXPIRATION_SECONDS = 60 * 60;
+
+    /**
+     * How long an instance waits for a change which is counted but missing, as the write puts
+     * it just after counting it, before it loads the whole table.
+     */
+    private static final long MISSING_CHANGE_MILLIS = 10 * 1000;
+
+    /**
+     * The most changes an instance applies at once; behind more, it loads the whole table.
+     */
+    private static final int MAX_CHANGES = 100;
+
+    private static final int LOAD_BATCH_SIZE = 500;
+
+    private static final String GENERATION_KEY = Constants.MEMCACHE_AUTOCOMPLETE_KEY + ":GEN";
+
+    private static final String CHANGE_KEY_PREFIX = Constants.MEMCACHE_AUTOCOMPLETE_KEY + ":";
+
+    /**
+     * Held while the table is loaded or changed, which only one request does at a time.
+     */
+    private static final ReentrantLock LOCK = new ReentrantLock();
+
+    private static volatile Table table;
+
+    private static volatile long checkedAt;
+
+    /**
+     * When this instance first found the change it needs next missing, or 0.
+     */
+    private static long missingSince;
+
+    /**
+     * Returns the suggestions for the given prefix.
+     *
+     * @param prefix What the user has typed so far.
+     * @return a List of at most MAX_SUGGESTIONS Suggestions.
+     */
+    public static List<Suggestion> lookup(String prefix) {
+        String term = normalize(prefix);
+        List<Suggestion> suggestions = new ArrayList<>(0);
+        if (term.isEmpty()) {
+            return suggestions;
+        }
+        // A conference name is found by each of its words, and a topic by each conference.
+        Set<String> seen = new HashSet<>();
+        for (Suggestion suggestion : currentTable().entries
+                .subMap(term, true, term + Character.MAX_VALUE, false).values()) {
+            String id = suggestion.getType() == Suggestion.Type.NAME
+                    ? suggestion.getWebsafeConferenceKey() : suggestion.getText();
+            if (seen.add(suggestion.getType() + id)) {
+                suggestions.add(suggestion);
+                if (suggestions.size() == MAX_SUGGESTIONS) {
+                    break;
+                }
+            }
+        }
+        return suggestions;
+    }
+
+    /**
+     * Replaces the terms of the given Conference in the datastore, within the current
+     * transaction.
+     *
+     * Call publish once the transaction has committed.
+     *
+     * @param conference The Conference being saved.
+     */
+    public static void saveTerms(Conference conference) {
+        Key<Conference> conferenceKey = Key.create(conference);
+        List<AutocompleteTerm> terms = termsOf(conferenceKey, conference);
+        Set<Key<AutocompleteTerm>> keys = new HashSet<>();
+        for (AutocompleteTerm term : terms) {
+            keys.add(Key.create(term));
+        }
+        List<Key<AutocompleteTerm>> removed = new ArrayList<>();
+        for (Key<AutocompleteTerm> key : ofy().load().type(AutocompleteTerm.class)
+                .ancestor(conferenceKey).keys()) {
+            if (!keys.contains(key)) {
+                removed.add(key);
+            }
+        }
+        ofy().delete().keys(removed).now();
+        ofy().save().entities(terms).now();
+    }
+
+    /**
+     * Passes the terms of the given Conference to the tables of all instances.
+     *
+     * @param conference The Conference just saved.
+     */
+    public static void publish(Conference conference) {
+        Change change = new Change(conference.getWebsafeKey(),
+                termsOf(Key.create(conference), conference));
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+        Long generation = memcacheService.increment(GENERATION_KEY, 1, 0L);
+        if (generation == null) {
+            LOG.warning("Could not count a change of " + conference.getWebsafeKey());
+            return;
+        }
+        memcacheService.put(CHANGE_KEY_PREFIX + generation, change,
+                Expiration.byDeltaSeconds(CHANGE_EXPIRATION_SECONDS));
+        LOCK.lock();
+        try {
+            Table current = table;
+            if (current != null) {
+                // The changes before this one may not be applied yet, and are applied with it
+                // again later.
+                table = current.apply(generation == current.generation + 1
+                        ? generation : current.generation, Collections.singletonList(change));
+            }
+        } finally {
+            LOCK.unlock();
+        }
+    }
+
+    /**
+     * Drops the table of this instance, so the next lookup loads it again.
+     */
+    public static void invalidate() {
+        table = null;
+    }
+
+    /**
+     * Loads the table, so the first lookup from a user doesn't pay for it.
+     */
+    public static void preload() {
+        currentTable();
+    }
+
+    private static Table currentTable() {
+        Table current = table;
+        if (current == null) {
+            LOCK.lock();
+            try {
+                if (table == null) {
+                    table = load();
+                }
+                return table;
+            } finally {
+                LOCK.unlock();
+            }
+        }
+        long now = System.currentTimeMillis();
+        // While another request loads or changes the table, serve the one there is.
+        if (now - checkedAt < CHECK_MILLIS || !LOCK.tryLock()) {
+            return current;
+        }
+        try {
+            checkedAt = now;
+            table = update(table, now);
+            return table;
+        } finally {
+            LOCK.unlock();
+        }
+    }
+
+    /**
+     * Applies the changes after the generation of the given table.
+     */
+    private static Table update(Table current, long now) {
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+        long generation = generationOf(memcacheService.get(GENERATION_KEY));
+        if (generation == current.generation) {
+            return current;
+        }
+        if (generation < current.generation || generation - current.generation > MAX_CHANGES) {
+            // Memcache lost the generation, or this instance is too far behind.
+            return load();
+        }
+        List<String> keys = new ArrayList<>();
+        for (long g = current.generation + 1; g <= generation; g++) {
+            keys.add(CHANGE_KEY_PREFIX + g);
+        }
+        Map<String, Object> found = memcacheService.getAll(keys);
+        List<Change> changes = new ArrayList<>();
+        for (String key : keys) {
+            Change change = (Change) found.get(key);
+            if (change == null) {
+                if (missingSince == 0) {
+                    missingSince = now;
+                } else if (now - missingSince >= MISSING_CHANGE_MILLIS) {
+                    LOG.info("Reloading the autocomplete table, as " + key + " is missing");
+                    return load();
+                }
+                break;
+            }
+            changes.add(change);
+        }
+        if (changes.size() == keys.size()) {
+            missingSince = 0;
+        }
+        return current.apply(current.generation + changes.size(), changes);
+    }
+
+    /**
+     * Loads the whole table from the datastore.
+     */
+    private static Table load() {
+        // Read the generation first, so the writes during the load are applied after it.
+        long generation = generationOf(
+                MemcacheServiceFactory.getMemcacheService().get(GENERATION_KEY));
+        NavigableMap<String, Suggestion> entries = new TreeMap<>();
+        for (AutocompleteTerm term : ofy().load().type(AutocompleteTerm.class)
+                .chunk(LOAD_BATCH_SIZE)) {
+            Suggestion suggestion = term.toSuggestion();
+            entries.put(entryKey(suggestion), suggestion);
+        }
+        checkedAt = System.currentTimeMillis();
+        missingSince = 0;
+        return new Table(generation, entries);
+    }
+
+    private static long generationOf(Object value) {
+        return value == null ? 0 : (Long) value;
+    }
+
+    /**
+     * Returns the key of a suggestion in the table, which orders the suggestions by their term.
+     */
+    private static String entryKey(Suggestion suggestion) {
+        return suggestion.getTerm() + Character.MIN_VALUE + suggestion.getType()
+                + Character.MIN_VALUE + suggestion.getWebsafeConferenceKey();
+    }
+
+    /**
+     * Returns the terms of a Conference: its name by each word, and each of its topics.
+     */
+    private static List<AutocompleteTerm> termsOf(Key<Conference> conferenceKey,
+                                                  Conference conference) {
+        List<AutocompleteTerm> terms = new ArrayList<>();
+        String name = normalize(conference.getName());
+        for (int i = 0; i < name.length(); i++) {
+            if (i == 0 || Character.isWhitespace(name.charAt(i - 1))
+                    && !Character.isWhitespace(name.charAt(i))) {
+                terms.add(new AutocompleteTerm(conferenceKey, name.substring(i),
+                        conference.getName(), Suggestion.Type.NAME));
+            }
+        }
+        if (conference.getTopics() != null) {
+            for (String topic : conference.getTopics()) {
+                terms.add(new AutocompleteTerm(conferenceKey, normalize(topic), topic,
+                        Suggestion.Type.TOPIC));
+            }
+        }
+        return terms;
+    }
+
+    private static String normalize(String text) {
+        return text == null ? "" : text.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * The table of an instance, which is replaced rather than changed once it is set, so lookups
+     * read it without locking.
+     */
+    private static class Table {
+
+        private final long generation;
+
+        private final NavigableMap<String, Suggestion> entries;
+
+        private Table(long generation, NavigableMap<String, Suggestion> entries) {
+            this.generation = generation;
+            this.entries = entries;
+        }
+
+        private Table apply(long generation, List<Change> changes) {
+            NavigableMap<String, Suggestion> copy = new TreeMap<>(entries);
+            for (Change change : changes) {
+                change.applyTo(copy);
+            }
+            return new Table(generation, copy);
+        }
+    }
+
+    /**
+     * The terms of a Conference after a write, which replace the ones it had.
+     */
+    private static class Change implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String websafeConferenceKey;
+
+        private final ArrayList<Suggestion> suggestions = new ArrayList<>();
+
+        private Change(String websafeConferenceKey, List<AutocompleteTerm> terms) {
+            this.websafeConferenceKey = websafeConferenceKey;
+            for (AutocompleteTerm term : terms) {
+                suggestions.add(term.toSuggestion());
+            }
+        }
+
+        private void applyTo(NavigableMap<String, Suggestion> entries) {
+            Iterator<Suggestion> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                if (websafeConferenceKey.equals(iterator.next().getWebsafeConferenceKey())) {
+                    iterator.remove();
+                }
+            }
+            for (Suggestion suggestion : suggestions) {
+                entries.put(entryKey(suggestion), suggestion);
+            }
+        }
+    }
+}
@@ -1,8 +1,15 @@
 package com.google.devrel.training.conference.service;
 
 import com.google.devrel.training.conference.domain.AppEngineUser;
+import com.google.devrel.training.conference.domain.AutocompleteTerm;
 import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferencesCreated;
+import com.google.devrel.training.conference.domain.FacetCount;
+import com.google.devrel.training.conference.domain.FacetUpdate;
+import com.google.devrel.training.conference.domain.IdempotentRequest;
 import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.Registration;
+import com.google.devrel.training.conference.domain.WaitlistEntry;
 import com.googlecode.objectify.Objectify;
 import com.googlecode.objectify.ObjectifyFactory;
 import com.googlecode.objectify.ObjectifyService;
@@ -15,9 +22,18 @@ public class OfyService {
      * This static block ensure the entity registration.
      */
     static {
+        long start = StartupProfiler.start();
         factory().register(AppEngineUser.class);
+        factory().register(AutocompleteTerm.class);
         factory().register(Conference.class);
+        factory().register(ConferencesCreated.class);
+        factory().register(FacetCount.class);
+        factory().register(FacetUpdate.class);
+        factory().register(IdempotentRequest.class);
         factory().register(Profile.class);
+        factory().register(Registration.class);
+        factory().register(WaitlistEntry.class);
+        StartupProfiler.phase("objectify", start);
     }
 
     /**
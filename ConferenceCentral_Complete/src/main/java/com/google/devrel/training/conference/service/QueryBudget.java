@@ -0,0 +1,56 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.apphosting.api.ApiProxy;
+
+/**
+ * A time and entity budget for one query, so that a query matching too many entities returns
+ * what it has gathered instead of running into the request deadline.
+ *
+ * The time budget ends RESERVE_MILLIS before the request deadline, which leaves time for the
+ * batch gets and the serialization of the partial result.
+ */
+public class QueryBudget {
+
+    public static final long DEFAULT_MAX_MILLIS = 20 * 1000;
+
+    public static final int DEFAULT_MAX_ENTITIES = 1000;
+
+    private static final long RESERVE_MILLIS = 10 * 1000;
+
+    private final long deadline;
+
+    private int entitiesLeft;
+
+    public QueryBudget(long maxMillis, int maxEntities) {
+        this.deadline = System.currentTimeMillis() + maxMillis;
+        this.entitiesLeft = maxEntities;
+    }
+
+    /**
+     * Returns the default budget, shortened to fit in the remaining time of the current request.
+     *
+     * @return a new QueryBudget.
+     */
+    public static QueryBudget forCurrentRequest() {
+        long maxMillis = DEFAULT_MAX_MILLIS;
+        ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+        if (environment != null) {
+            maxMillis = Math.min(maxMillis, environment.getRemainingMillis() - RESERVE_MILLIS);
+        }
+        return new QueryBudget(maxMillis, DEFAULT_MAX_ENTITIES);
+    }
+
+    /**
+     * Takes entities from the budget, unless that would overspend it.
+     *
+     * @param entities The number of entities about to be loaded.
+     * @return true when the entities fit in the budget, false when the budget is exhausted.
+     */
+    public boolean spend(int entities) {
+        if (entities > entitiesLeft || System.currentTimeMillis() >= deadline) {
+            return false;
+        }
+        entitiesLeft -= entities;
+        return true;
+    }
+}
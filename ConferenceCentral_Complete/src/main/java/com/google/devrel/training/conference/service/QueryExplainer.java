@@ -0,0 +1,98 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.devrel.training.conference.domain.ConferenceQueryResult;
+import com.google.devrel.training.conference.domain.QueryExplanation;
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.google.devrel.training.conference.tools.IndexAdvisor;
+import com.google.devrel.training.conference.tools.IndexAdvisor.CompositeIndex;
+import com.google.devrel.training.conference.tools.IndexAdvisor.QueryPlan;
+import com.google.devrel.training.conference.tools.IndexAdvisor.QueryShape;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Logger;
+
+/**
+ * Explains Conference queries: their shape, the indexes serving them and what they cost.
+ *
+ * A SAMPLE_RATE share of the real queries is explained and logged with the "Query sample"
+ * prefix, so expensive shapes can be found in the production logs. Slow or truncated samples are
+ * logged as warnings.
+ */
+public class QueryExplainer {
+
+    private static final Logger LOG = Logger.getLogger(QueryExplainer.class.getName());
+
+    public static final double SAMPLE_RATE = 0.01;
+
+    public static final long SLOW_QUERY_MILLIS = 1000;
+
+    private static final Random RANDOM = new Random();
+
+    /**
+     * The composite indexes of the deployed datastore-indexes.xml, or null when unknown.
+     */
+    private static volatile List<CompositeIndex> indexes;
+
+    /**
+     * Sets the deployed composite indexes. IndexCheckListener calls this on startup.
+     *
+     * @param deployedIndexes The composite indexes of datastore-indexes.xml.
+     */
+    public static void setIndexes(List<CompositeIndex> deployedIndexes) {
+        indexes = deployedIndexes == null
+                ? null : Collections.unmodifiableList(new ArrayList<>(deployedIndexes));
+    }
+
+    /**
+     * Decides whether to explain the current query.
+     *
+     * @return true for a SAMPLE_RATE share of the calls.
+     */
+    public static boolean shouldSample() {
+        return RANDOM.nextDouble() < SAMPLE_RATE;
+    }
+
+    /**
+     * Explains a query which has run.
+     *
+     * @param form The query.
+     * @param result The result of the query.
+     * @param rpcCount The number of API calls the query made.
+     * @param wallTimeMillis The time the query took.
+     * @return the QueryExplanation.
+     */
+    public static QueryExplanation explain(ConferenceQueryForm form, ConferenceQueryResult result,
+                                           int rpcCount, long wallTimeMillis) {
+        QueryShape shape = IndexAdvisor.shapeOf(form);
+        List<CompositeIndex> currentIndexes = indexes;
+        String planType = "UNKNOWN";
+        List<String> planIndexes = new ArrayList<>();
+        if (currentIndexes != null) {
+            QueryPlan plan = IndexAdvisor.plan(shape, currentIndexes);
+            planType = plan.getType().toString();
+            for (CompositeIndex index : plan.getIndexes()) {
+                planIndexes.add(index.toString());
+            }
+        }
+        return new QueryExplanation(shape.toString(), planType, planIndexes,
+                result.getKeysScanned(), result.getItems().size(), result.isTruncated(),
+                rpcCount, wallTimeMillis);
+    }
+
+    /**
+     * Logs a sampled QueryExplanation.
+     *
+     * @param explanation The explanation of a sampled query.
+     */
+    public static void log(QueryExplanation explanation) {
+        String message = "Query sample: " + explanation;
+        if (explanation.isTruncated() || explanation.getWallTimeMillis() >= SLOW_QUERY_MILLIS) {
+            LOG.warning(message);
+        } else {
+            LOG.info(message);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.google.devrel.training.conference.service;
+
+import java.util.Random;
+
+/**
+ * How Transactions retries a transaction which failed on a concurrent modification: at most
+ * maxTries tries, sleeping an exponential backoff with full jitter between them, and giving up
+ * when the next try would start at or after the deadline.
+ *
+ * Full jitter draws each sleep uniformly between 0 and the backoff, so that requests which
+ * collided once don't collide again on the next try.
+ */
+public class RetryPolicy {
+
+    private final int maxTries;
+
+    private final long initialBackoffMillis;
+
+    private final long maxBackoffMillis;
+
+    private final long deadlineMillis;
+
+    /**
+     * Public constructor for RetryPolicy.
+     *
+     * @param maxTries The number of tries, the first one included.
+     * @param initialBackoffMillis The backoff after the first try, doubled after each next one.
+     * @param maxBackoffMillis The longest backoff.
+     * @param deadlineMillis The time from the first try at which no try starts anymore.
+     */
+    public RetryPolicy(int maxTries, long initialBackoffMillis, long maxBackoffMillis,
+                       long deadlineMillis) {
+        if (maxTries < 1 || initialBackoffMillis < 0 || maxBackoffMillis < initialBackoffMillis
+                || deadlineMillis < 0) {
+            throw new IllegalArgumentException("Invalid retry policy: " + maxTries + ","
+                    + initialBackoffMillis + "," + maxBackoffMillis + "," + deadlineMillis);
+        }
+        this.maxTries = maxTries;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.deadlineMillis = deadlineMillis;
+    }
+
+    /**
+     * Parses a policy written as maxTries,initialBackoffMillis,maxBackoffMillis,deadlineMillis,
+     * which is how it is given in a system property.
+     *
+     * @param value The policy, as its four numbers separated by commas.
+     * @return the RetryPolicy.
+     * @throws IllegalArgumentException when the value is not a valid policy.
+     */
+    public static RetryPolicy parse(String value) {
+        String[] parts = value.split(",");
+        if (parts.length != 4) {
+            throw new IllegalArgumentException("Invalid retry policy: " + value);
+        }
+        return new RetryPolicy(Integer.parseInt(parts[0].trim()), Long.parseLong(parts[1].trim()),
+                Long.parseLong(parts[2].trim()), Long.parseLong(parts[3].trim()));
+    }
+
+    /**
+     * Returns how long to sleep after a failed try.
+     *
+     * @param failedTries The number of tries which failed so far, at least 1.
+     * @param random The source of the jitter.
+     * @return a sleep between 0 and the backoff for that many failed tries, in milliseconds.
+     */
+    public long backoffMillis(int failedTries, Random random) {
+        long backoff = initialBackoffMillis;
+        for (int i = 1; i < failedTries && backoff < maxBackoffMillis; i++) {
+            backoff *= 2;
+        }
+        backoff = Math.min(backoff, maxBackoffMillis);
+        return backoff == 0 ? 0 : (long) (random.nextDouble() * (backoff + 1));
+    }
+
+    public int getMaxTries() {
+        return maxTries;
+    }
+
+    public long getInitialBackoffMillis() {
+        return initialBackoffMillis;
+    }
+
+    public long getMaxBackoffMillis() {
+        return maxBackoffMillis;
+    }
+
+    public long getDeadlineMillis() {
+        return deadlineMillis;
+    }
+
+    @Override
+    public String toString() {
+        return maxTries + "," + initialBackoffMillis + "," + maxBackoffMillis + ","
+                + deadlineMillis;
+    }
+}
@@ -0,0 +1,104 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.apphosting.api.ApiProxy;
+import com.google.apphosting.api.ApiProxy.ApiConfig;
+import com.google.apphosting.api.ApiProxy.Delegate;
+import com.google.apphosting.api.ApiProxy.Environment;
+import com.google.apphosting.api.ApiProxy.LogRecord;
+
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts the API calls (datastore, memcache, ...) the current thread makes between start and
+ * stop.
+ *
+ * Works by wrapping the ApiProxy delegate, the same way Appstats does. RpcCounterListener
+ * installs the wrapper once at startup, so it is never swapped while requests run; start and
+ * stop only mark the current thread. Without the wrapper, nothing is counted.
+ */
+public class RpcCounter {
+
+    private static final ThreadLocal<AtomicInteger> COUNT = new ThreadLocal<>();
+
+    /**
+     * Wraps the ApiProxy delegate, unless it is already wrapped. Call once at startup, before
+     * any request.
+     */
+    public static synchronized void install() {
+        @SuppressWarnings("unchecked")
+        Delegate<Environment> delegate = ApiProxy.getDelegate();
+        if (delegate != null && !(delegate instanceof CountingDelegate)) {
+            ApiProxy.setDelegate(new CountingDelegate(delegate));
+        }
+    }
+
+    /**
+     * Starts counting the calls of the current thread. Every start must be followed by a stop.
+     */
+    public static void start() {
+        COUNT.set(new AtomicInteger());
+    }
+
+    /**
+     * Stops counting the calls of the current thread.
+     *
+     * @return the number of calls since start.
+     */
+    public static int stop() {
+        AtomicInteger count = COUNT.get();
+        COUNT.remove();
+        return count == null ? 0 : count.get();
+    }
+
+    private static void count() {
+        AtomicInteger count = COUNT.get();
+        if (count != null) {
+            count.incrementAndGet();
+        }
+    }
+
+    /**
+     * Passes every call on to the wrapped delegate, counting the ones of counting threads.
+     */
+    private static class CountingDelegate implements Delegate<Environment> {
+
+        private final Delegate<Environment> delegate;
+
+        private CountingDelegate(Delegate<Environment> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public byte[] makeSyncCall(Environment environment, String packageName,
+                                   String methodName, byte[] request) {
+            count();
+            return delegate.makeSyncCall(environment, packageName, methodName, request);
+        }
+
+        @Override
+        public Future<byte[]> makeAsyncCall(Environment environment, String packageName,
+                                            String methodName, byte[] request,
+                                            ApiConfig apiConfig) {
+            count();
+            return delegate.makeAsyncCall(environment, packageName, methodName, request,
+                    apiConfig);
+        }
+
+        @Override
+        public void log(Environment environment, LogRecord record) {
+            delegate.log(environment, record);
+        }
+
+        @Override
+        public void flushLogs(Environment environment) {
+            delegate.flushLogs(environment);
+        }
+
+        @Override
+        public List<Thread> getRequestThreads(Environment environment) {
+            return delegate.getRequestThreads(environment);
+        }
+    }
+}
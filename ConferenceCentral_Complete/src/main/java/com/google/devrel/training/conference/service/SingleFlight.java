@@ -0,0 +1,226 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+
+import java.io.Serializable;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Logger;
+
+/**
+ * A memcache read-through cache where only one caller rebuilds a value at a time.
+ *
+ * Within an instance, the callers missing the same key share one in-flight load. Across
+ * instances, a loader first takes a lease in memcache. The callers without the lease wait up to
+ * LEASE_WAIT_MILLIS for the holder's value, and only load themselves once the wait is over.
+ *
+ * A value is fresh for the time given when it is stored, and is then kept as stale. The first
+ * caller to see a stale value takes the lease and rebuilds it on its own thread, so that one
+ * request waits for the loader before it is served the stale value, while everyone else is
+ * served the stale value without waiting. Null values are cached like any other.
+ */
+public class SingleFlight {
+
+    private static final Logger LOG = Logger.getLogger(SingleFlight.class.getName());
+
+    private static final String LEASE_PREFIX = "LEASE:";
+
+    /**
+     * How long a lease lasts, in case its holder never releases it.
+     */
+    private static final int LEASE_MILLIS = 10 * 1000;
+
+    private static final long LEASE_WAIT_MILLIS = 1000;
+
+    private static final long POLL_MILLIS = 50;
+
+    private static final ConcurrentMap<String, FutureTask<Object>> IN_FLIGHT =
+            new ConcurrentHashMap<>();
+
+    /**
+     * A cached value, with the time until which it is fresh.
+     */
+    private static class Entry implements Serializable {
+
+        private final Serializable value;
+
+        private final long freshUntil;
+
+        private Entry(Serializable value, long freshUntil) {
+            this.value = value;
+            this.freshUntil = freshUntil;
+        }
+    }
+
+    /**
+     * Returns the cached value of a key, loading it when it is missing or stale.
+     *
+     * @param key The memcache key.
+     * @param loader Builds the value, from the datastore usually.
+     * @param freshMillis How long a loaded value is fresh.
+     * @return the value, which may be stale.
+     */
+    public static <T extends Serializable> T get(String key, Callable<T> loader,
+                                                 long freshMillis) {
+        Object cached = MemcacheServiceFactory.getMemcacheService().get(key);
+        // Anything but an Entry was written by an older version of the app.
+        if (!(cached instanceof Entry)) {
+            return load(key, loader, freshMillis);
+        }
+        Entry entry = (Entry) cached;
+        @SuppressWarnings("unchecked")
+        T value = (T) entry.value;
+        if (System.currentTimeMillis() >= entry.freshUntil) {
+            refreshStale(key, loader, freshMillis);
+        }
+        return value;
+    }
+
+    /**
+     * Stores a value, fresh for freshMillis.
+     *
+     * @param key The memcache key.
+     * @param value The value, which may be null.
+     * @param freshMillis How long the value is fresh.
+     */
+    public static void put(String key, Serializable value, long freshMillis) {
+        MemcacheServiceFactory.getMemcacheService().put(key,
+                new Entry(value, System.currentTimeMillis() + freshMillis));
+    }
+
+    /**
+     * Loads a missing value, sharing the load with the other callers of this instance.
+     */
+    private static <T extends Serializable> T load(final String key, final Callable<T> loader,
+                                                   final long freshMillis) {
+        FutureTask<Object> task = new FutureTask<>(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                return loadWithLease(key, loader, freshMillis);
+            }
+        });
+        FutureTask<Object> inFlight = IN_FLIGHT.putIfAbsent(key, task);
+        if (inFlight == null) {
+            inFlight = task;
+            try {
+                task.run();
+            } finally {
+                IN_FLIGHT.remove(key, task);
+            }
+        }
+        try {
+            @SuppressWarnings("unchecked")
+            T value = (T) inFlight.get();
+            return value;
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException
+                    ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Loads a missing value, unless another instance holding the lease stores it meanwhile.
+     */
+    private static Serializable loadWithLease(String key, Callable<? extends Serializable> loader,
+                                              long freshMillis) throws Exception {
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+        String token = acquireLease(memcacheService, key);
+        if (token == null) {
+            long deadline = System.currentTimeMillis() + LEASE_WAIT_MILLIS;
+            while (System.currentTimeMillis() < deadline) {
+                Thread.sleep(POLL_MILLIS);
+                Object cached = memcacheService.get(key);
+                if (cached instanceof Entry) {
+                    return ((Entry) cached).value;
+                }
+            }
+            // The holder is slow or gone. Better load twice than not answer.
+            LOG.info("Lease wait for " + key + " expired, loading without the lease.");
+        }
+        try {
+            Serializable value = loader.call();
+            put(key, value, freshMillis);
+            return value;
+        } finally {
+            if (token != null) {
+                releaseLease(memcacheService, key, token);
+            }
+        }
+    }
+
+    /**
+     * Rebuilds a stale value if no one else is.
+     *
+     * The rebuild runs on the caller's thread and blocks it until the loader returns, but only
+     * when this instance is not rebuilding the value already and the lease is free. Everyone
+     * else returns at once. The caller is served the stale value either way.
+     */
+    private static void refreshStale(final String key,
+                                     final Callable<? extends Serializable> loader,
+                                     final long freshMillis) {
+        final MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+        FutureTask<Object> task = new FutureTask<>(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                String token = acquireLease(memcacheService, key);
+                if (token == null) {
+                    return null;
+                }
+                try {
+                    Serializable value = loader.call();
+                    put(key, value, freshMillis);
+                    return value;
+                } finally {
+                    releaseLease(memcacheService, key, token);
+                }
+            }
+        });
+        if (IN_FLIGHT.putIfAbsent(key, task) != null) {
+            return;
+        }
+        try {
+            task.run();
+        } finally {
+            IN_FLIGHT.remove(key, task);
+        }
+        try {
+            task.get();
+        } catch (ExecutionException e) {
+            // The stale value is still good enough. The next caller will try again.
+            LOG.warning("Failed to refresh " + key + ": " + e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Takes the lease on a key.
+     *
+     * @return the token to release the lease with, or null when someone else has it.
+     */
+    private static String acquireLease(MemcacheService memcacheService, String key) {
+        String token = UUID.randomUUID().toString();
+        if (memcacheService.put(LEASE_PREFIX + key, token,
+                Expiration.byDeltaMillis(LEASE_MILLIS), SetPolicy.ADD_ONLY_IF_NOT_PRESENT)) {
+            return token;
+        }
+        return null;
+    }
+
+    private static void releaseLease(MemcacheService memcacheService, String key, String token) {
+        // Only release our own lease, not the next one if ours has expired.
+        if (token.equals(memcacheService.get(LEASE_PREFIX + key))) {
+            memcacheService.delete(LEASE_PREFIX + key);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.google.devrel.training.conference.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Records where the startup of an instance goes: how long each startup phase took, and how long
+ * the first request to each path took.
+ *
+ * Times are offsets from the moment this class was loaded, which is when the first phase starts,
+ * so gaps between phases are visible too. Each phase and each path is only recorded the first
+ * time, and at most MAX_FIRST_REQUESTS paths are.
+ */
+public class StartupProfiler {
+
+    private static final long ORIGIN = System.currentTimeMillis();
+
+    private static final int MAX_FIRST_REQUESTS = 100;
+
+    /**
+     * A phase or a first request, as offsets from ORIGIN.
+     */
+    private static class Span {
+
+        private final String name;
+
+        private final long startOffset;
+
+        private final long endOffset;
+
+        private Span(String name, long startOffset, long endOffset) {
+            this.name = name;
+            this.startOffset = startOffset;
+            this.endOffset = endOffset;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-60s start %6d ms  took %6d ms",
+                    name, startOffset, endOffset - startOffset);
+        }
+    }
+
+    private static final ConcurrentMap<String, Span> PHASES = new ConcurrentHashMap<>();
+
+    private static final ConcurrentMap<String, Span> FIRST_REQUESTS = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the start time to pass to phase or firstRequest.
+     *
+     * @return the current time in milliseconds.
+     */
+    public static long start() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Records a startup phase which has just ended.
+     *
+     * @param name The name of the phase.
+     * @param startMillis The time the phase started, as returned by start.
+     */
+    public static void phase(String name, long startMillis) {
+        PHASES.putIfAbsent(name, new Span(name, startMillis - ORIGIN,
+                System.currentTimeMillis() - ORIGIN));
+    }
+
+    /**
+     * Tells whether a request to a path would be recorded by firstRequest.
+     *
+     * @param path The path of the request.
+     * @return true when no request to the path has been recorded yet.
+     */
+    public static boolean isFirstRequest(String path) {
+        return FIRST_REQUESTS.size() < MAX_FIRST_REQUESTS && !FIRST_REQUESTS.containsKey(path);
+    }
+
+    /**
+     * Records the first request to a path, which has just ended.
+     *
+     * @param path The path of the request.
+     * @param startMillis The time the request started, as returned by start.
+     */
+    public static void firstRequest(String path, long startMillis) {
+        if (FIRST_REQUESTS.size() < MAX_FIRST_REQUESTS) {
+            FIRST_REQUESTS.putIfAbsent(path, new Span(path, startMillis - ORIGIN,
+                    System.currentTimeMillis() - ORIGIN));
+        }
+    }
+
+    /**
+     * Returns the phases and the first requests, each in the order they started.
+     *
+     * @return the report, one line per phase or request.
+     */
+    public static String report() {
+        StringBuilder report = new StringBuilder("Startup phases:\n");
+        for (Span span : sorted(PHASES.values())) {
+            report.append("  ").append(span).append('\n');
+        }
+        report.append("First requests:\n");
+        for (Span span : sorted(FIRST_REQUESTS.values())) {
+            report.append("  ").append(span).append('\n');
+        }
+        return report.toString();
+    }
+
+    private static List<Span> sorted(Iterable<Span> spans) {
+        List<Span> result = new ArrayList<>();
+        for (Span span : spans) {
+            int index = 0;
+            while (index < result.size() && result.get(index).startOffset <= span.startOffset) {
+                index++;
+            }
+            result.add(index, span);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,284 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Runs transactions with the RetryPolicy of their Operation, and counts their tries, conflicts
+ * and give-ups per Operation and entity group.
+ *
+ * Objectify's transact retries a transaction as soon as it fails on a concurrent modification,
+ * and without limit, which adds load to an entity group that is already contended. This tries
+ * each transaction once through transactNew, and does the retrying itself. The versions saved
+ * by a try go to VersionCache once it commits.
+ *
+ * The policy of an Operation is its default, unless the system property
+ * conference.transactions.[operation] gives another one, as parsed by RetryPolicy.parse, or
+ * setPolicy replaced it. The counts are per instance, for at most MAX_STATS pairs of Operation
+ * and entity group; the groups past that are counted together.
+ */
+public class Transactions {
+
+    private static final Logger LOG = Logger.getLogger(Transactions.class.getName());
+
+    private static final String PROPERTY_PREFIX = "conference.transactions.";
+
+    private static final int MAX_STATS = 1000;
+
+    private static final String OTHER_GROUPS = "(other)";
+
+    /**
+     * The kinds of transaction, each with its default RetryPolicy.
+     */
+    public enum Operation {
+        SAVE_PROFILE(new RetryPolicy(5, 50, 1000, 5000)),
+        CREATE_CONFERENCE(new RetryPolicy(5, 50, 1000, 5000)),
+        UPDATE_CONFERENCE(new RetryPolicy(5, 50, 1000, 5000)),
+        // Registrations all write the Conference, so they contend on popular ones. They are
+        // short, so they retry sooner and more often.
+        REGISTER(new RetryPolicy(8, 20, 500, 5000)),
+        UNREGISTER(new RetryPolicy(8, 20, 500, 5000)),
+        JOIN_WAITLIST(new RetryPolicy(8, 20, 500, 5000)),
+        LEAVE_WAITLIST(new RetryPolicy(8, 20, 500, 5000)),
+        // Run from tasks, which are retried anyway, so there is no user waiting.
+        UPDATE_FACET_COUNT(new RetryPolicy(10, 100, 5000, 60000)),
+        SYNC_CONFERENCES_TO_ATTEND(new RetryPolicy(10, 100, 5000, 60000)),
+        BACKFILL_REGISTRATION(new RetryPolicy(10, 100, 5000, 60000)),
+        BACKFILL_CONFERENCE(new RetryPolicy(10, 100, 5000, 60000)),
+        PROMOTE_WAITLIST(new RetryPolicy(10, 100, 5000, 60000)),
+        BUILD_CONFERENCES_CREATED(new RetryPolicy(3, 50, 500, 2000));
+
+        private final RetryPolicy defaultPolicy;
+
+        Operation(RetryPolicy defaultPolicy) {
+            this.defaultPolicy = defaultPolicy;
+        }
+
+        public RetryPolicy getDefaultPolicy() {
+            return defaultPolicy;
+        }
+
+        private String propertyName() {
+            return PROPERTY_PREFIX + name().toLowerCase();
+        }
+    }
+
+    /**
+     * The counts of an Operation on an entity group.
+     */
+    public static class Stats {
+
+        private final String name;
+
+        private final AtomicLong runs = new AtomicLong();
+
+        private final AtomicLong tries = new AtomicLong();
+
+        private final AtomicLong conflicts = new AtomicLong();
+
+        private final AtomicLong giveUps = new AtomicLong();
+
+        private final AtomicLong backoffMillis = new AtomicLong();
+
+        private Stats(String name) {
+            this.name = name;
+        }
+
+        public long getRuns() {
+            return runs.get();
+        }
+
+        public long getTries() {
+            return tries.get();
+        }
+
+        public long getConflicts() {
+            return conflicts.get();
+        }
+
+        public long getGiveUps() {
+            return giveUps.get();
+        }
+
+        public long getBackoffMillis() {
+            return backoffMillis.get();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-60s runs %6d  tries %6d  conflicts %6d  give-ups %6d"
+                    + "  backoff %8d ms", name, getRuns(), getTries(), getConflicts(),
+                    getGiveUps(), getBackoffMillis());
+        }
+    }
+
+    private static final ConcurrentMap<Operation, RetryPolicy> POLICIES =
+            new ConcurrentHashMap<>();
+
+    private static final ConcurrentMap<String, Stats> STATS = new ConcurrentHashMap<>();
+
+    private static final Random RANDOM = new Random();
+
+    static {
+        for (Operation operation : Operation.values()) {
+            String value = System.getProperty(operation.propertyName());
+            RetryPolicy policy = operation.getDefaultPolicy();
+            if (value != null) {
+                try {
+                    policy = RetryPolicy.parse(value);
+                } catch (IllegalArgumentException e) {
+                    LOG.warning("Ignoring " + operation.propertyName() + ": " + e.getMessage());
+                }
+            }
+            POLICIES.put(operation, policy);
+        }
+    }
+
+    /**
+     * Runs a transaction, retrying it as the RetryPolicy of its Operation says.
+     *
+     * @param operation The kind of transaction.
+     * @param key A key in the entity group the transaction contends on, which its counts go to.
+     * @param work The transaction, which may run more than once.
+     * @return what the work returned.
+     * @throws ConcurrentModificationException when the last try failed on a concurrent
+     * modification.
+     */
+    public static <R> R run(Operation operation, Key<?> key, Work<R> work) {
+        RetryPolicy policy = POLICIES.get(operation);
+        Stats stats = statsFor(operation, key);
+        stats.runs.incrementAndGet();
+        long start = System.currentTimeMillis();
+        for (int tries = 1; ; tries++) {
+            stats.tries.incrementAndGet();
+            Map<Key<?>, Long> enclosingVersions = VersionCache.beginTransaction();
+            try {
+                // A limit of 0 retries makes transactNew try once.
+                R result = ofy().transactNew(0, work);
+                VersionCache.commitTransaction();
+                return result;
+            } catch (ConcurrentModificationException e) {
+                stats.conflicts.incrementAndGet();
+                long backoff = policy.backoffMillis(tries, RANDOM);
+                long elapsed = System.currentTimeMillis() - start;
+                if (tries >= policy.getMaxTries()
+                        || elapsed + backoff >= policy.getDeadlineMillis()) {
+                    stats.giveUps.incrementAndGet();
+                    LOG.warning("Giving up " + operation + " on " + groupOf(key) + " after "
+                            + tries + " tries and " + elapsed + " ms");
+                    throw e;
+                }
+                stats.backoffMillis.addAndGet(backoff);
+                sleep(backoff);
+            } finally {
+                VersionCache.endTransaction(enclosingVersions);
+            }
+        }
+    }
+
+    /**
+     * Replaces the RetryPolicy of an Operation.
+     *
+     * @param operation The kind of transaction.
+     * @param policy The new RetryPolicy.
+     */
+    public static void setPolicy(Operation operation, RetryPolicy policy) {
+        POLICIES.put(operation, policy);
+    }
+
+    public static RetryPolicy getPolicy(Operation operation) {
+        return POLICIES.get(operation);
+    }
+
+    /**
+     * Returns the counts of an Operation on the entity group of a key.
+     *
+     * @param operation The kind of transaction.
+     * @param key A key in the entity group.
+     * @return the Stats, or null when no such transaction ran on this instance.
+     */
+    public static Stats getStats(Operation operation, Key<?> key) {
+        return STATS.get(statsName(operation, groupOf(key)));
+    }
+
+    /**
+     * Returns the policies, and the counts by Operation and entity group, the most conflicts
+     * first.
+     *
+     * @return the report, one line per policy or count.
+     */
+    public static String report() {
+        StringBuilder report = new StringBuilder("Retry policies:\n");
+        for (Operation operation : Operation.values()) {
+            report.append(String.format("  %-60s %s%n", operation, POLICIES.get(operation)));
+        }
+        List<Stats> stats = new ArrayList<>(STATS.values());
+        Collections.sort(stats, new Comparator<Stats>() {
+            @Override
+            public int compare(Stats a, Stats b) {
+                return Long.compare(b.getConflicts(), a.getConflicts());
+            }
+        });
+        report.append("Transactions by entity group:\n");
+        for (Stats stat : stats) {
+            report.append("  ").append(stat).append('\n');
+        }
+        return report.toString();
+    }
+
+    private static Stats statsFor(Operation operation, Key<?> key) {
+        String group = groupOf(key);
+        if (STATS.size() >= MAX_STATS
+                && !STATS.containsKey(statsName(operation, group))) {
+            group = OTHER_GROUPS;
+        }
+        String name = statsName(operation, group);
+        Stats stats = STATS.get(name);
+        if (stats == null) {
+            STATS.putIfAbsent(name, new Stats(name));
+            stats = STATS.get(name);
+        }
+        return stats;
+    }
+
+    private static String statsName(Operation operation, String group) {
+        return operation + " " + group;
+    }
+
+    /**
+     * Returns the root key of the entity group of a key, which is what transactions contend on.
+     */
+    private static String groupOf(Key<?> key) {
+        Key<?> root = key;
+        while (root.getParent() != null) {
+            root = root.getParent();
+        }
+        return root.getRaw().toString();
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while backing off", e);
+        }
+    }
+}
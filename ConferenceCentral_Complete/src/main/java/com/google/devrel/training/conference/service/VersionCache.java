@@ -0,0 +1,146 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.IdentifiableValue;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.googlecode.objectify.Key;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the latest version of Conferences and Profiles in memcache, so that conditional reads
+ * can answer 304 without loading the entity.
+ *
+ * A cached version only ever grows. Versions are written when an entity is read, and once the
+ * transaction which saves it commits, so that a transaction which is retried or rolled back
+ * publishes nothing. Saving an entity first drops its entry, before the datastore write, so
+ * that when the version written after the commit is lost, or the entity is saved outside a
+ * transaction, readers load the entity rather than answer 304 from the old version. A reader
+ * that caches the version it read after a newer one was saved changes nothing. Entries expire
+ * after EXPIRATION_SECONDS, for a reader which cached the old version between the drop and the
+ * commit when the write after the commit is lost too.
+ */
+public class VersionCache {
+
+    private static final String PREFIX = "VERSION:";
+
+    private static final int EXPIRATION_SECONDS = 10 * 60;
+
+    private static final int MAX_CAS_RETRIES = 5;
+
+    /**
+     * The versions saved in the current transaction of the thread, or null outside one.
+     */
+    private static final ThreadLocal<Map<Key<?>, Long>> PENDING = new ThreadLocal<>();
+
+    /**
+     * Returns the cached version of an entity.
+     *
+     * @param key The key of the entity.
+     * @return the version, or null when it is not cached.
+     */
+    public static Long get(Key<?> key) {
+        return (Long) MemcacheServiceFactory.getMemcacheService().get(PREFIX + key.getString());
+    }
+
+    /**
+     * Returns the cached versions of entities.
+     *
+     * @param keys The keys of the entities.
+     * @return a Map with the versions of the cached entities only.
+     */
+    public static Map<Key<?>, Long> getAll(Collection<? extends Key<?>> keys) {
+        List<String> ids = new ArrayList<>(keys.size());
+        for (Key<?> key : keys) {
+            ids.add(PREFIX + key.getString());
+        }
+        Map<String, Object> cached = MemcacheServiceFactory.getMemcacheService().getAll(ids);
+        Map<Key<?>, Long> versions = new HashMap<>();
+        for (Key<?> key : keys) {
+            Long version = (Long) cached.get(PREFIX + key.getString());
+            if (version != null) {
+                versions.put(key, version);
+            }
+        }
+        return versions;
+    }
+
+    /**
+     * Drops the cached version of an entity being saved, and publishes the new one once the
+     * current transaction commits. Outside a transaction, the next read caches it.
+     *
+     * @param key The key of the entity.
+     * @param version The version being saved.
+     */
+    public static void publish(Key<?> key, long version) {
+        MemcacheServiceFactory.getMemcacheService().delete(PREFIX + key.getString());
+        Map<Key<?>, Long> pending = PENDING.get();
+        if (pending != null) {
+            pending.put(key, version);
+        }
+    }
+
+    /**
+     * Starts collecting the versions saved in a new try of a transaction.
+     *
+     * @return the versions collected for the enclosing transaction, if any, to pass back to
+     * endTransaction.
+     */
+    public static Map<Key<?>, Long> beginTransaction() {
+        Map<Key<?>, Long> enclosing = PENDING.get();
+        PENDING.set(new HashMap<Key<?>, Long>());
+        return enclosing;
+    }
+
+    /**
+     * Publishes the versions saved in the transaction which just committed.
+     */
+    public static void commitTransaction() {
+        for (Map.Entry<Key<?>, Long> entry : PENDING.get().entrySet()) {
+            update(entry.getKey(), entry.getValue());
+        }
+        PENDING.get().clear();
+    }
+
+    /**
+     * Drops the versions of the try which ended, committed or not, and goes back to collecting
+     * for the enclosing transaction.
+     *
+     * @param enclosing What beginTransaction returned.
+     */
+    public static void endTransaction(Map<Key<?>, Long> enclosing) {
+        PENDING.set(enclosing);
+    }
+
+    /**
+     * Caches the version of an entity, unless a later version is already cached.
+     *
+     * @param key The key of the entity.
+     * @param version The version just saved or read.
+     */
+    public static void update(Key<?> key, long version) {
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+        String id = PREFIX + key.getString();
+        Expiration expiration = Expiration.byDeltaSeconds(EXPIRATION_SECONDS);
+        for (int i = 0; i < MAX_CAS_RETRIES; i++) {
+            IdentifiableValue identifiable = memcacheService.getIdentifiable(id);
+            if (identifiable == null) {
+                if (memcacheService.put(id, version, expiration,
+                        SetPolicy.ADD_ONLY_IF_NOT_PRESENT)) {
+                    return;
+                }
+            } else if ((Long) identifiable.getValue() >= version
+                    || memcacheService.putIfUntouched(id, identifiable, version, expiration)) {
+                return;
+            }
+        }
+        // Too much contention. Drop the entry, so that the next read caches what it reads.
+        memcacheService.delete(id);
+    }
+}
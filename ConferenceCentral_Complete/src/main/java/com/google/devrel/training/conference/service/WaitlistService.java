@@ -0,0 +1,97 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Registration;
+import com.google.devrel.training.conference.domain.WaitlistEntry;
+import com.google.devrel.training.conference.service.Transactions.Operation;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Promotes the users on the waitlist of a Conference to the seats which free up.
+ *
+ * The transactions which free seats while anyone is waiting enqueue a promotion task, instead of
+ * letting the users waiting poll registerForConference. A promotion registers up to BATCH_SIZE
+ * users, first in first out, in one transaction on the Conference, and enqueues the next one
+ * when seats and users are left.
+ */
+public class WaitlistService {
+
+    private static final Logger LOG = Logger.getLogger(WaitlistService.class.getName());
+
+    private static final String PROMOTE_URL = "/tasks/promote_waitlist";
+
+    /**
+     * The most users promoted per transaction, which writes two entities per user.
+     */
+    private static final int BATCH_SIZE = 50;
+
+    /**
+     * Enqueues a promotion for a Conference, within the current transaction.
+     *
+     * @param queue The Queue to add the task to.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     */
+    public static void enqueuePromotion(Queue queue, String websafeConferenceKey) {
+        queue.add(ofy().getTransaction(), TaskOptions.Builder.withUrl(PROMOTE_URL)
+                .param("websafeConferenceKey", websafeConferenceKey));
+    }
+
+    /**
+     * Registers the users at the head of the waitlist of a Conference to its free seats.
+     *
+     * @param conferenceKey The key of the Conference.
+     * @return the userIds of the users promoted.
+     */
+    public static List<String> promote(final Key<Conference> conferenceKey) {
+        final Queue queue = QueueFactory.getDefaultQueue();
+        return Transactions.run(Operation.PROMOTE_WAITLIST, conferenceKey,
+                new Work<List<String>>() {
+            @Override
+            public List<String> run() {
+                Conference conference = ofy().load().key(conferenceKey).now();
+                if (conference == null || !conference.hasWaitlistToPromote()) {
+                    return Collections.emptyList();
+                }
+                int batchSize = Math.min(conference.getSeatsAvailable(), BATCH_SIZE);
+                List<WaitlistEntry> entries = ofy().load().type(WaitlistEntry.class)
+                        .ancestor(conferenceKey).order("joinedAt").limit(batchSize).list();
+                List<Registration> registrations = new ArrayList<>(entries.size());
+                List<String> userIds = new ArrayList<>(entries.size());
+                for (WaitlistEntry entry : entries) {
+                    registrations.add(new Registration(conferenceKey, entry.getUserId(), null));
+                    userIds.add(entry.getUserId());
+                }
+                conference.bookSeats(entries.size());
+                conference.removeFromWaitlist(entries.size());
+                if (entries.size() < batchSize && conference.getWaitlistLength() > 0) {
+                    // The query found every entry left, so the count is off.
+                    LOG.warning("Resetting the waitlist length of " + conferenceKey + " from "
+                            + conference.getWaitlistLength() + " to 0");
+                    conference.removeFromWaitlist(conference.getWaitlistLength());
+                }
+                ofy().delete().entities(entries).now();
+                ofy().save().entities(registrations).now();
+                ofy().save().entity(conference).now();
+                String websafeConferenceKey = conference.getWebsafeKey();
+                if (!userIds.isEmpty()) {
+                    Registration.enqueueProfileSync(queue, websafeConferenceKey, userIds);
+                }
+                if (conference.hasWaitlistToPromote()) {
+                    enqueuePromotion(queue, websafeConferenceKey);
+                }
+                return userIds;
+            }
+        });
+    }
+}
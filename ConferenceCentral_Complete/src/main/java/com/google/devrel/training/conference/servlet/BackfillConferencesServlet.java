@@ -0,0 +1,86 @@
+package com.google.devrel.training.conference.servlet;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.service.AutocompleteService;
+import com.google.devrel.training.conference.service.Transactions;
+import com.google.devrel.training.conference.service.Transactions.Operation;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+import com.googlecode.objectify.cmd.Query;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for saving again the Conferences saved before there were yearMonth and isoWeek,
+ * indexes on the dates and AutocompleteTerms, so that the date filters of queryConferences and
+ * autocompleteConferences find them.
+ *
+ * Loading a Conference derives the missing buckets, and saving it writes them and the index
+ * entries, along with its AutocompleteTerms. Handles BATCH_SIZE Conferences per request, from
+ * the "cursor" parameter on, and enqueues itself for the next ones. Running it again does no
+ * harm.
+ */
+public class BackfillConferencesServlet extends HttpServlet {
+
+    private static final int BATCH_SIZE = 100;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        doPost(request, response);
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        Query<Conference> query = ofy().load().type(Conference.class).limit(BATCH_SIZE);
+        String cursor = request.getParameter("cursor");
+        if (cursor != null) {
+            query = query.startAt(Cursor.fromWebSafeString(cursor));
+        }
+        QueryResultIterator<Key<Conference>> iterator = query.keys().iterator();
+        int count = 0;
+        while (iterator.hasNext()) {
+            resave(iterator.next());
+            count++;
+        }
+        if (count == BATCH_SIZE) {
+            QueueFactory.getDefaultQueue().add(
+                    TaskOptions.Builder.withUrl("/tasks/backfill_conferences")
+                    .param("cursor", iterator.getCursor().toWebSafeString()));
+        }
+        response.setStatus(204);
+    }
+
+    /**
+     * Saves a Conference again, in a transaction so that a concurrent update isn't lost.
+     */
+    public static void resave(final Key<Conference> conferenceKey) {
+        Conference conference = Transactions.run(Operation.BACKFILL_CONFERENCE, conferenceKey,
+                new Work<Conference>() {
+            @Override
+            public Conference run() {
+                Conference conference = ofy().load().key(conferenceKey).now();
+                if (conference != null) {
+                    ofy().save().entity(conference).now();
+                    AutocompleteService.saveTerms(conference);
+                }
+                return conference;
+            }
+        });
+        if (conference != null) {
+            AutocompleteService.publish(conference);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.domain.FacetCount;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for counting all the Conferences again into the FacetCounts, including the ones
+ * saved before there were FacetCounts. Running it again does no harm.
+ */
+public class BackfillFacetCountsServlet extends HttpServlet {
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        doPost(request, response);
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        FacetCount.recountAll();
+        response.setStatus(204);
+    }
+}
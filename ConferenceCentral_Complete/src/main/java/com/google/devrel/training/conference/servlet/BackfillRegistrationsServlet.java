@@ -0,0 +1,95 @@
+package com.google.devrel.training.conference.servlet;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.Registration;
+import com.google.devrel.training.conference.service.Transactions;
+import com.google.devrel.training.conference.service.Transactions.Operation;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.LoadResult;
+import com.googlecode.objectify.VoidWork;
+import com.googlecode.objectify.cmd.Query;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for creating the Registrations of the users who registered before there were
+ * Registrations, from the conferenceKeysToAttend of their Profiles.
+ *
+ * Their seats are already booked, so only the missing Registrations are saved. Until then the
+ * API reads those registrations from the Profiles, see Registration.isLegacy, which it stops
+ * doing once the conference.registrations.legacy system property is set to false. Handles
+ * BATCH_SIZE Profiles per request, from the "cursor" parameter on, and enqueues itself for the
+ * next ones. Running it again does no harm.
+ */
+public class BackfillRegistrationsServlet extends HttpServlet {
+
+    private static final Logger LOG =
+            Logger.getLogger(BackfillRegistrationsServlet.class.getName());
+
+    private static final int BATCH_SIZE = 100;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        doPost(request, response);
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        Query<Profile> query = ofy().load().type(Profile.class).limit(BATCH_SIZE);
+        String cursor = request.getParameter("cursor");
+        if (cursor != null) {
+            query = query.startAt(Cursor.fromWebSafeString(cursor));
+        }
+        QueryResultIterator<Profile> iterator = query.iterator();
+        int count = 0;
+        while (iterator.hasNext()) {
+            Profile profile = iterator.next();
+            for (String websafeConferenceKey : profile.getConferenceKeysToAttend()) {
+                backfill(Key.<Conference>create(websafeConferenceKey), profile.getUserId());
+            }
+            count++;
+        }
+        if (count == BATCH_SIZE) {
+            QueueFactory.getDefaultQueue().add(
+                    TaskOptions.Builder.withUrl("/tasks/backfill_registrations")
+                    .param("cursor", iterator.getCursor().toWebSafeString()));
+        } else {
+            LOG.info("Registrations backfilled: set conference.registrations.legacy to false");
+        }
+        response.setStatus(204);
+    }
+
+    private static void backfill(final Key<Conference> conferenceKey, final String userId) {
+        Transactions.run(Operation.BACKFILL_REGISTRATION, conferenceKey, new VoidWork() {
+            @Override
+            public void vrun() {
+                // Start all loads before using any, so that they go in one batch get.
+                LoadResult<Conference> conferenceLoad = ofy().load().key(conferenceKey);
+                LoadResult<Registration> registrationLoad =
+                        ofy().load().key(Registration.keyOf(conferenceKey, userId));
+                LoadResult<Profile> profileLoad =
+                        ofy().load().key(Key.create(Profile.class, userId));
+                // The user may have unregistered since the Profile was queried.
+                if (conferenceLoad.now() != null && Registration.isLegacy(
+                        registrationLoad.now(), profileLoad.now(), conferenceKey.getString())) {
+                    ofy().save().entity(new Registration(conferenceKey, userId, null)).now();
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,277 @@
+package com.google.devrel.training.conference.servlet;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.oauth.OAuthRequestException;
+import com.google.appengine.api.oauth.OAuthService;
+import com.google.appengine.api.oauth.OAuthServiceFactory;
+import com.google.appengine.api.users.User;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferencesCreated;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.service.VersionCache;
+import com.google.devrel.training.conference.spi.ConferenceApi;
+import com.googlecode.objectify.Key;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for reading Conferences and Profiles with HTTP conditional GETs.
+ *
+ * Serves the same JSON as getConference, getConferencesCreated and getProfile, with an ETag
+ * built from the versions of the entities in the response. When If-None-Match has the current
+ * ETag, it answers 304 from the versions in VersionCache, without loading the entities.
+ * Endpoints can neither read these headers nor answer 304, so this is a plain servlet:
+ * <ul>
+ *     <li>GET /read/conference/{websafeConferenceKey}</li>
+ *     <li>GET /read/conferencesCreated (signed in)</li>
+ *     <li>GET /read/profile (signed in)</li>
+ * </ul>
+ * Signed in requests carry an OAuth 2.0 bearer token for one of the API clients.
+ */
+public class ConditionalReadServlet extends HttpServlet {
+
+    private static final String CONFERENCE_PATH = "/conference/";
+
+    private static final String CONFERENCES_CREATED_PATH = "/conferencesCreated";
+
+    private static final String PROFILE_PATH = "/profile";
+
+    private static final List<String> CLIENT_IDS = ImmutableList.of(Constants.WEB_CLIENT_ID,
+            Constants.ANDROID_CLIENT_ID, Constants.API_EXPLORER_CLIENT_ID);
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        String path = request.getPathInfo() == null ? "" : request.getPathInfo();
+        if (path.startsWith(CONFERENCE_PATH)) {
+            getConference(request, response, path.substring(CONFERENCE_PATH.length()));
+            return;
+        }
+        if (!path.equals(CONFERENCES_CREATED_PATH) && !path.equals(PROFILE_PATH)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        User user = getUser();
+        if (user == null) {
+            response.sendError(HttpServletResponse.SC_UNAUTHORIZED, "Authorization required");
+            return;
+        }
+        String userId = ConferenceApi.getUserId(user);
+        if (path.equals(CONFERENCES_CREATED_PATH)) {
+            getConferencesCreated(request, response, userId);
+        } else {
+            getProfile(request, response, userId);
+        }
+    }
+
+    private static void getConference(HttpServletRequest request, HttpServletResponse response,
+                                      String websafeConferenceKey) throws IOException {
+        Key<Conference> conferenceKey;
+        try {
+            conferenceKey = Key.create(websafeConferenceKey);
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        // The response has the organizer's display name, so its Profile is part of the version.
+        Key<Profile> organizerKey = conferenceKey.getParent();
+        List<Key<?>> keys = ImmutableList.<Key<?>>of(conferenceKey, organizerKey);
+        if (isNotModified(request, response, keys)) {
+            return;
+        }
+        Conference conference = ofy().load().key(conferenceKey).now();
+        if (conference == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND,
+                    "No Conference found with key: " + websafeConferenceKey);
+            return;
+        }
+        Profile organizer = ofy().load().key(organizerKey).now();
+        long organizerVersion = organizer == null ? 0 : organizer.getVersion();
+        VersionCache.update(conferenceKey, conference.getVersion());
+        VersionCache.update(organizerKey, organizerVersion);
+        Hasher hasher = Hashing.sha1().newHasher();
+        addToEtag(hasher, conferenceKey, conference.getVersion());
+        addToEtag(hasher, organizerKey, organizerVersion);
+        if (isNotModified(request, response, "\"" + hasher.hash() + "\"",
+                latest(conference.getUpdatedAt(), organizer))) {
+            return;
+        }
+        JsonWriter.write(response, conference);
+    }
+
+    private static void getConferencesCreated(HttpServletRequest request,
+                                              HttpServletResponse response, String userId)
+            throws IOException {
+        Key<Profile> profileKey = Key.create(Profile.class, userId);
+        List<Key<Conference>> conferenceKeys =
+                ConferencesCreated.get(profileKey).getConferenceKeys();
+        List<Key<?>> keys = new ArrayList<>();
+        keys.add(profileKey);
+        keys.addAll(conferenceKeys);
+        if (isNotModified(request, response, keys)) {
+            return;
+        }
+        Map<Key<Conference>, Conference> conferences = ofy().load().keys(conferenceKeys);
+        Profile profile = ofy().load().key(profileKey).now();
+        long profileVersion = profile == null ? 0 : profile.getVersion();
+        VersionCache.update(profileKey, profileVersion);
+        Hasher hasher = Hashing.sha1().newHasher();
+        addToEtag(hasher, profileKey, profileVersion);
+        Date lastModified = profile == null ? null : profile.getUpdatedAt();
+        List<Conference> result = new ArrayList<>(conferenceKeys.size());
+        for (Key<Conference> conferenceKey : conferenceKeys) {
+            Conference conference = conferences.get(conferenceKey);
+            long version = conference == null ? 0 : conference.getVersion();
+            VersionCache.update(conferenceKey, version);
+            addToEtag(hasher, conferenceKey, version);
+            if (conference != null) {
+                result.add(conference);
+                lastModified = latest(lastModified, conference.getUpdatedAt());
+            }
+        }
+        if (isNotModified(request, response, "\"" + hasher.hash() + "\"", lastModified)) {
+            return;
+        }
+        JsonWriter.write(response, result);
+    }
+
+    private static void getProfile(HttpServletRequest request, HttpServletResponse response,
+                                   String userId) throws IOException {
+        Key<Profile> profileKey = Key.create(Profile.class, userId);
+        if (isNotModified(request, response, ImmutableList.<Key<?>>of(profileKey))) {
+            return;
+        }
+        Profile profile = ofy().load().key(profileKey).now();
+        if (profile == null) {
+            // Same as getProfile, which returns null for a user without a Profile.
+            response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+            return;
+        }
+        VersionCache.update(profileKey, profile.getVersion());
+        Hasher hasher = Hashing.sha1().newHasher();
+        addToEtag(hasher, profileKey, profile.getVersion());
+        if (isNotModified(request, response, "\"" + hasher.hash() + "\"",
+                profile.getUpdatedAt())) {
+            return;
+        }
+        JsonWriter.write(response, profile);
+    }
+
+    /**
+     * Returns the signed in user of an OAuth request from one of the API clients.
+     */
+    private static User getUser() {
+        OAuthService oauthService = OAuthServiceFactory.getOAuthService();
+        try {
+            User user = oauthService.getCurrentUser(Constants.EMAIL_SCOPE);
+            if (CLIENT_IDS.contains(oauthService.getClientId(Constants.EMAIL_SCOPE))) {
+                return user;
+            }
+        } catch (OAuthRequestException e) {
+            // Not signed in.
+        }
+        return null;
+    }
+
+    /**
+     * Answers 304 when If-None-Match has the ETag built from the cached versions of the keys.
+     *
+     * @return true when the response is sent.
+     */
+    private static boolean isNotModified(HttpServletRequest request,
+                                         HttpServletResponse response, List<Key<?>> keys) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        Map<Key<?>, Long> versions = VersionCache.getAll(keys);
+        if (versions.size() < keys.size()) {
+            return false;
+        }
+        Hasher hasher = Hashing.sha1().newHasher();
+        for (Key<?> key : keys) {
+            addToEtag(hasher, key, versions.get(key));
+        }
+        String etag = "\"" + hasher.hash() + "\"";
+        if (!matches(ifNoneMatch, etag)) {
+            return false;
+        }
+        response.setHeader("ETag", etag);
+        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        return true;
+    }
+
+    /**
+     * Sets the validators of a loaded response, and answers 304 when the client has it already.
+     *
+     * @return true when the response is sent.
+     */
+    private static boolean isNotModified(HttpServletRequest request,
+                                         HttpServletResponse response, String etag,
+                                         Date lastModified) {
+        response.setHeader("ETag", etag);
+        // Clients may keep the response, but have to check it is current before using it.
+        response.setHeader("Cache-Control", "private, no-cache");
+        if (lastModified != null) {
+            response.setDateHeader("Last-Modified", lastModified.getTime());
+        }
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        boolean notModified;
+        if (ifNoneMatch != null) {
+            notModified = matches(ifNoneMatch, etag);
+        } else {
+            long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+            // HTTP dates have a precision of one second.
+            notModified = ifModifiedSince != -1 && lastModified != null
+                    && lastModified.getTime() / 1000 <= ifModifiedSince / 1000;
+        }
+        if (notModified) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        }
+        return notModified;
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        for (String candidate : ifNoneMatch.split(",")) {
+            String trimmed = candidate.trim();
+            // Weak comparison, as a GET allows.
+            if (trimmed.startsWith("W/")) {
+                trimmed = trimmed.substring(2);
+            }
+            if (trimmed.equals("*") || trimmed.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void addToEtag(Hasher hasher, Key<?> key, long version) {
+        hasher.putString(key.getString(), Charsets.UTF_8).putLong(version);
+    }
+
+    private static Date latest(Date updatedAt, Profile profile) {
+        return latest(updatedAt, profile == null ? null : profile.getUpdatedAt());
+    }
+
+    private static Date latest(Date a, Date b) {
+        if (a == null) {
+            return b;
+        }
+        return b == null || a.after(b) ? a : b;
+    }
+}
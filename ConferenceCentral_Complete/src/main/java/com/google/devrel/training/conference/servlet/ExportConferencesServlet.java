@@ -0,0 +1,75 @@
+package com.google.devrel.training.conference.servlet;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.googlecode.objectify.Key;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for downloading all Conferences as a JSON array.
+ *
+ * Unlike queryConferences, the Conferences are written as they come from the datastore iterator,
+ * BATCH_SIZE at a time, and the session cache is cleared after each batch, so the memory used
+ * does not grow with the number of Conferences. The response has no Content-Length, so it is
+ * sent chunked where the server streams responses.
+ */
+public class ExportConferencesServlet extends HttpServlet {
+
+    private static final int BATCH_SIZE = 100;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        Writer writer = response.getWriter();
+        QueryResultIterator<Conference> iterator = ofy().load().type(Conference.class)
+                .order("__key__").chunk(BATCH_SIZE).iterator();
+        List<Conference> batch = new ArrayList<>(BATCH_SIZE);
+        boolean first = true;
+        writer.write("[");
+        while (iterator.hasNext()) {
+            batch.add(iterator.next());
+            if (batch.size() == BATCH_SIZE || !iterator.hasNext()) {
+                writeBatch(response, writer, batch, first);
+                first = false;
+                batch.clear();
+                writer.flush();
+                // Don't keep the written Conferences and Profiles in the session cache.
+                ofy().clear();
+            }
+        }
+        writer.write("]");
+        writer.flush();
+    }
+
+    private static void writeBatch(HttpServletResponse response, Writer writer,
+                                   List<Conference> batch, boolean first) throws IOException {
+        // Get the organizers of the whole batch at once, so that getOrganizerDisplayName finds
+        // them in the session cache instead of getting them one by one.
+        List<Key<Profile>> organizerKeys = new ArrayList<>(batch.size());
+        for (Conference conference : batch) {
+            organizerKeys.add(conference.getProfileKey());
+        }
+        ofy().load().keys(organizerKeys);
+        for (Conference conference : batch) {
+            if (!first) {
+                writer.write(",");
+            }
+            first = false;
+            writer.write(JsonWriter.toJson(response, conference));
+        }
+    }
+}
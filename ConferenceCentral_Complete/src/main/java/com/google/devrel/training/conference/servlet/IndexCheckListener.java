@@ -0,0 +1,62 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.QueryExplainer;
+import com.google.devrel.training.conference.service.StartupProfiler;
+import com.google.devrel.training.conference.tools.IndexAdvisor;
+import com.google.devrel.training.conference.tools.IndexAdvisor.CompositeIndex;
+import com.google.devrel.training.conference.tools.IndexAdvisor.QueryShape;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+/**
+ * Checks at startup that datastore-indexes.xml serves every sort key and date filter of
+ * ConferenceQueryForm, and hands the indexes to QueryExplainer.
+ *
+ * The datastore only reports a missing index when a query needs it, so without this check a
+ * missing index would first show up as a failing queryConferences call.
+ */
+public class IndexCheckListener implements ServletContextListener {
+
+    private static final Logger LOG = Logger.getLogger(IndexCheckListener.class.getName());
+
+    private static final String INDEXES_FILE = "/WEB-INF/datastore-indexes.xml";
+
+    @Override
+    public void contextInitialized(ServletContextEvent event) {
+        long start = StartupProfiler.start();
+        List<CompositeIndex> indexes;
+        try (InputStream inputStream =
+                     event.getServletContext().getResourceAsStream(INDEXES_FILE)) {
+            if (inputStream == null) {
+                throw new IllegalStateException(INDEXES_FILE + " is missing");
+            }
+            indexes = IndexAdvisor.parseIndexes(inputStream);
+        } catch (IllegalStateException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to read " + INDEXES_FILE, e);
+        }
+        // Let explainQuery tell which of these indexes serve a query.
+        QueryExplainer.setIndexes(indexes);
+        List<QueryShape> unserved = new ArrayList<>(IndexAdvisor.unservedSortShapes(indexes));
+        unserved.addAll(IndexAdvisor.unservedDateShapes(indexes));
+        if (!unserved.isEmpty()) {
+            for (QueryShape shape : unserved) {
+                LOG.log(Level.SEVERE, "No index serves the query shape: " + shape);
+            }
+            throw new IllegalStateException(unserved.size()
+                    + " sortable or date query shapes are not served by " + INDEXES_FILE);
+        }
+        StartupProfiler.phase("indexCheck", start);
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent event) {}
+}
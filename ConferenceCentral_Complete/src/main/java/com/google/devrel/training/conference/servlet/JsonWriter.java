@@ -0,0 +1,57 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.api.server.spi.config.ApiSerializationConfig;
+import com.google.api.server.spi.response.ServletResponseResultWriter;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Writes results as JSON for the servlets which don't go through Endpoints, with the result
+ * writer of Endpoints, so they are in the same shape the Endpoints API returns them.
+ */
+class JsonWriter {
+
+    private static final ApiSerializationConfig SERIALIZATION_CONFIG =
+            new ApiSerializationConfig();
+
+    /**
+     * Writes a result as the whole response, the way Endpoints does: a collection is wrapped
+     * in an object as its "items".
+     */
+    static void write(HttpServletResponse response, Object result) throws IOException {
+        new ServletResponseResultWriter(response, SERIALIZATION_CONFIG).write(result);
+    }
+
+    /**
+     * Returns a result as JSON, for a servlet which streams a response made of many of them.
+     */
+    static String toJson(HttpServletResponse response, Object result) throws IOException {
+        final StringWriter json = new StringWriter();
+        // The result writer also sets the status and the headers, which are the ones of the
+        // whole response here.
+        new ServletResponseResultWriter(new HttpServletResponseWrapper(response) {
+            @Override
+            public PrintWriter getWriter() {
+                return new PrintWriter(json);
+            }
+
+            @Override
+            public void setStatus(int status) {}
+
+            @Override
+            public void setContentType(String type) {}
+
+            @Override
+            public void setContentLength(int length) {}
+
+            @Override
+            public void addHeader(String name, String value) {}
+        }, SERIALIZATION_CONFIG).write(result);
+        return json.toString();
+    }
+}
@@ -0,0 +1,27 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.service.WaitlistService;
+import com.googlecode.objectify.Key;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for promoting the waitlist of the Conference in the "websafeConferenceKey"
+ * parameter to its free seats.
+ */
+public class PromoteWaitlistServlet extends HttpServlet {
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        WaitlistService.promote(
+                Key.<Conference>create(request.getParameter("websafeConferenceKey")));
+        response.setStatus(204);
+    }
+}
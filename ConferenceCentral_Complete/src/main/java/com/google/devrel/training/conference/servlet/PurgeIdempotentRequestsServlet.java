@@ -0,0 +1,51 @@
+package com.google.devrel.training.conference.servlet;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.devrel.training.conference.domain.FacetUpdate;
+import com.google.devrel.training.conference.domain.IdempotentRequest;
+import com.googlecode.objectify.Key;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for deleting the expired IdempotentRequests and FacetUpdates.
+ *
+ * The query is eventually consistent, so a record which just expired may be left for the next
+ * run; resultOf ignores it meanwhile.
+ */
+public class PurgeIdempotentRequestsServlet extends HttpServlet {
+
+    private static final int BATCH_SIZE = 500;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        purge(IdempotentRequest.class);
+        purge(FacetUpdate.class);
+        response.setStatus(204);
+    }
+
+    private static <T> void purge(Class<T> type) {
+        List<Key<T>> batch = new ArrayList<>(BATCH_SIZE);
+        for (Key<T> key : ofy().load().type(type)
+                .filter("expiresAt <", new Date()).chunk(BATCH_SIZE).keys()) {
+            batch.add(key);
+            if (batch.size() == BATCH_SIZE) {
+                ofy().delete().keys(batch).now();
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            ofy().delete().keys(batch).now();
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.RpcCounter;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+/**
+ * Installs the RpcCounter at startup, so the queries sampled by QueryExplainer and explainQuery
+ * can count their API calls.
+ */
+public class RpcCounterListener implements ServletContextListener {
+
+    @Override
+    public void contextInitialized(ServletContextEvent event) {
+        RpcCounter.install();
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent event) {}
+}
@@ -0,0 +1,23 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.StartupProfiler;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for reading the StartupProfiler report of the instance serving the request.
+ */
+public class StartupProfileServlet extends HttpServlet {
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        response.setContentType("text/plain");
+        response.getWriter().print(StartupProfiler.report());
+    }
+}
@@ -0,0 +1,47 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.StartupProfiler;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Times the first request to each path for StartupProfiler.
+ *
+ * Mapped before the other filters, so the times include theirs. The filters are initialized
+ * after the listeners and before the servlets loaded on startup, so the "filters" phase marks
+ * where the servlet initialization starts.
+ */
+public class StartupProfilingFilter implements Filter {
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+        StartupProfiler.phase("filters", StartupProfiler.start());
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        String path = ((HttpServletRequest) request).getRequestURI();
+        if (!StartupProfiler.isFirstRequest(path)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        long start = StartupProfiler.start();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            StartupProfiler.firstRequest(path, start);
+        }
+    }
+
+    @Override
+    public void destroy() {}
+}
@@ -0,0 +1,33 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Registration;
+import com.googlecode.objectify.Key;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for bringing the conferenceKeysToAttend of Profiles up to date with Registrations
+ * just saved.
+ *
+ * Receives the attendees in the "userId" parameters and the Conference in the
+ * "websafeConferenceKey" parameter.
+ */
+public class SyncConferencesToAttendServlet extends HttpServlet {
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        Key<Conference> conferenceKey =
+                Key.create(request.getParameter("websafeConferenceKey"));
+        for (String userId : request.getParameterValues("userId")) {
+            Registration.syncProfile(userId, conferenceKey);
+        }
+        response.setStatus(204);
+    }
+}
@@ -0,0 +1,33 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.domain.FacetCount;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for applying changes of Conferences to the FacetCounts.
+ *
+ * Receives the FacetCount ids a Conference was added to in the "add" parameters, the ids it
+ * was removed from in the "remove" parameters, and the id of the change in the "updateId"
+ * parameter.
+ */
+public class UpdateFacetCountsServlet extends HttpServlet {
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        String updateId = request.getParameter("updateId");
+        if (updateId == null) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "updateId required");
+            return;
+        }
+        FacetCount.applyUpdate(updateId, request.getParameterValues("add"),
+                request.getParameterValues("remove"));
+        response.setStatus(204);
+    }
+}
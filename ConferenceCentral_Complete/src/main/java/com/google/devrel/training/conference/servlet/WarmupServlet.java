@@ -0,0 +1,97 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.google.devrel.training.conference.service.AnnouncementService;
+import com.google.devrel.training.conference.service.AutocompleteService;
+import com.google.devrel.training.conference.service.OfyService;
+import com.google.devrel.training.conference.spi.ConferenceApi;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for App Engine's warmup requests, which it sends to a new instance before any user
+ * request.
+ *
+ * Pays the first use costs on the warmup request: the Objectify entity registration, the local
+ * copy of the announcement, the autocomplete lookup, and the query path with the first
+ * page of the conference list, which is what most visitors load first. SystemServiceServlet
+ * loads the API configuration on startup, so that is done before this runs.
+ *
+ * A step which fails is logged and skipped, as the instance can serve without it. Responds with
+ * the time each step took, which is logged too.
+ */
+public class WarmupServlet extends HttpServlet {
+
+    private static final Logger LOG = Logger.getLogger(WarmupServlet.class.getName());
+
+    /**
+     * The page size of the conference list in the web client.
+     */
+    private static final int FIRST_PAGE_SIZE = 20;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        long start = System.currentTimeMillis();
+        Map<String, Long> millis = new LinkedHashMap<>();
+        step(millis, "objectify", new Runnable() {
+            @Override
+            public void run() {
+                OfyService.ofy();
+            }
+        });
+        step(millis, "announcement", new Runnable() {
+            @Override
+            public void run() {
+                AnnouncementService.get();
+            }
+        });
+        step(millis, "autocomplete", new Runnable() {
+            @Override
+            public void run() {
+                AutocompleteService.preload();
+            }
+        });
+        step(millis, "conferences", new Runnable() {
+            @Override
+            public void run() {
+                new ConferenceApi().queryConferences(
+                        new ConferenceQueryForm().limit(FIRST_PAGE_SIZE));
+            }
+        });
+        long total = System.currentTimeMillis() - start;
+        LOG.info("Warmup took " + total + " ms: " + millis);
+
+        response.setContentType("text/plain");
+        PrintWriter writer = response.getWriter();
+        for (Map.Entry<String, Long> entry : millis.entrySet()) {
+            writer.println(entry.getKey() + ": "
+                    + (entry.getValue() == null ? "failed" : entry.getValue() + " ms"));
+        }
+        writer.println("total: " + total + " ms");
+    }
+
+    /**
+     * Runs a step of the warmup, recording how long it took, or null when it failed.
+     */
+    private static void step(Map<String, Long> millis, String name, Runnable step) {
+        long start = System.currentTimeMillis();
+        try {
+            step.run();
+            millis.put(name, System.currentTimeMillis() - start);
+        } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "Warmup step " + name + " failed", e);
+            millis.put(name, null);
+        }
+    }
+}
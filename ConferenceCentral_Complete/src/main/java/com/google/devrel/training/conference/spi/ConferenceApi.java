@@ -6,32 +6,62 @@ import static com.google.devrel.training.conference.service.OfyService.ofy;
 import com.google.api.server.spi.config.Api;
 import com.google.api.server.spi.config.ApiMethod;
 import com.google.api.server.spi.config.ApiMethod.HttpMethod;
+import com.google.api.server.spi.config.Nullable;
 import com.google.api.server.spi.response.ConflictException;
 import com.google.api.server.spi.response.ForbiddenException;
 import com.google.api.server.spi.response.NotFoundException;
 import com.google.api.server.spi.response.UnauthorizedException;
-import com.google.appengine.api.memcache.MemcacheService;
-import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.oauth.OAuthRequestException;
+import com.google.appengine.api.oauth.OAuthServiceFactory;
 import com.google.appengine.api.taskqueue.Queue;
 import com.google.appengine.api.taskqueue.QueueFactory;
 import com.google.appengine.api.taskqueue.TaskOptions;
 import com.google.appengine.api.users.User;
+import com.google.common.collect.Sets;
 import com.google.devrel.training.conference.Constants;
 import com.google.devrel.training.conference.domain.Announcement;
 import com.google.devrel.training.conference.domain.AppEngineUser;
+import com.google.devrel.training.conference.domain.Attendee;
+import com.google.devrel.training.conference.domain.AttendeeListResult;
 import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceQueryResult;
+import com.google.devrel.training.conference.domain.ConferencesCreated;
+import com.google.devrel.training.conference.domain.FacetCount;
+import com.google.devrel.training.conference.domain.IdempotentRequest;
 import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.QueryExplanation;
+import com.google.devrel.training.conference.domain.Registration;
+import com.google.devrel.training.conference.domain.Suggestion;
+import com.google.devrel.training.conference.domain.WaitlistEntry;
 import com.google.devrel.training.conference.form.ConferenceForm;
 import com.google.devrel.training.conference.form.ConferenceQueryForm;
 import com.google.devrel.training.conference.form.ProfileForm;
 import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+import com.google.devrel.training.conference.service.AnnouncementService;
+import com.google.devrel.training.conference.service.AutocompleteService;
+import com.google.devrel.training.conference.service.QueryBudget;
+import com.google.devrel.training.conference.service.QueryExplainer;
+import com.google.devrel.training.conference.service.RpcCounter;
+import com.google.devrel.training.conference.service.Transactions;
+import com.google.devrel.training.conference.service.Transactions.Operation;
+import com.google.devrel.training.conference.service.WaitlistService;
 import com.googlecode.objectify.Key;
+import com.googlecode.objectify.LoadResult;
 import com.googlecode.objectify.Objectify;
+import com.googlecode.objectify.VoidWork;
 import com.googlecode.objectify.Work;
+import com.googlecode.objectify.cmd.Query;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 import java.util.logging.Logger;
 
 import javax.inject.Named;
@@ -54,6 +84,16 @@ public class ConferenceApi {
 
     private static final Logger LOG = Logger.getLogger(ConferenceApi.class.getName());
 
+    /**
+     * The operation an IdempotentRequest is recorded for. Registrations keep their idempotency
+     * key in the Registration.
+     */
+    private static final String CREATE_CONFERENCE = "createConference";
+
+    private static final int DEFAULT_ATTENDEES_PAGE_SIZE = 20;
+
+    private static final int MAX_ATTENDEES_PAGE_SIZE = 100;
+
     private static String extractDefaultDisplayNameFromEmail(String email) {
         return email == null ? null : email.substring(0, email.indexOf("@"));
     }
@@ -71,13 +111,46 @@ public class ConferenceApi {
         return profile;
     }
 
+    /**
+     * Saves the default Profile of a user who has none yet, in a transaction so that it doesn't
+     * replace one saved meanwhile.
+     */
+    private static void createProfileIfMissing(final User user, final String userId) {
+        Transactions.run(Operation.SAVE_PROFILE, Key.create(Profile.class, userId),
+                new VoidWork() {
+            @Override
+            public void vrun() {
+                if (ofy().load().key(Key.create(Profile.class, userId)).now() == null) {
+                    ofy().save().entity(getProfileFromUser(user, userId)).now();
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the ConferencesCreated of an organizer within a transaction, rebuilding it when
+     * missing.
+     *
+     * @param load The pending load of the ConferencesCreated.
+     * @param profileKey The key of the organizer's Profile.
+     * @return the ConferencesCreated, to be saved by the transaction.
+     */
+    private static ConferencesCreated conferencesCreatedOf(LoadResult<ConferencesCreated> load,
+                                                          Key<Profile> profileKey) {
+        ConferencesCreated conferencesCreated = load.now();
+        return conferencesCreated != null
+                ? conferencesCreated : ConferencesCreated.rebuild(profileKey);
+    }
+
     /**
      * This is an ugly workaround for null userId for Android clients.
      *
+     * ConditionalReadServlet uses it too, for the users it gets from OAuthService.
+     *
      * @param user A User object injected by the cloud endpoints.
      * @return the App Engine userId for the user.
      */
-    private static String getUserId(User user) {
+    public static String getUserId(User user) {
         String userId = user.getUserId();
         if (userId == null) {
             LOG.info("userId is null, so trying to obtain it from the datastore.");
@@ -92,6 +165,43 @@ public class ConferenceApi {
         return userId;
     }
 
+    /**
+     * Returns whether the user calling the API is an administrator of the application.
+     */
+    private static boolean isAdmin() {
+        try {
+            return OAuthServiceFactory.getOAuthService().isUserAdmin(Constants.EMAIL_SCOPE);
+        } catch (OAuthRequestException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Enqueues a task for updating the FacetCounts, within the current transaction.
+     *
+     * @param queue The Queue to add the task to.
+     * @param facetIdsBefore The FacetCount ids of the Conference before the change.
+     * @param facetIdsAfter The FacetCount ids of the Conference after the change.
+     */
+    private static void enqueueFacetCountsUpdate(Queue queue, Set<String> facetIdsBefore,
+                                                 Set<String> facetIdsAfter) {
+        // The id lets the task tell its retries apart from another change of the same counts.
+        TaskOptions taskOptions = TaskOptions.Builder.withUrl("/tasks/update_facet_counts")
+                .param("updateId", UUID.randomUUID().toString());
+        boolean changed = false;
+        for (String id : Sets.difference(facetIdsAfter, facetIdsBefore)) {
+            taskOptions.param("add", id);
+            changed = true;
+        }
+        for (String id : Sets.difference(facetIdsBefore, facetIdsAfter)) {
+            taskOptions.param("remove", id);
+            changed = true;
+        }
+        if (changed) {
+            queue.add(ofy().getTransaction(), taskOptions);
+        }
+    }
+
     /**
      * Just a wrapper for Boolean.
      */
@@ -115,7 +225,8 @@ public class ConferenceApi {
      * <pre>
      * {@code
      * // The transaction that returns Conference object.
-     * TxResult<Conference> result = ofy().transact(new Work<TxResult<Conference>>() {
+     * TxResult<Conference> result = Transactions.run(Operation.UPDATE_CONFERENCE, conferenceKey,
+     *         new Work<TxResult<Conference>>() {
      *     public TxResult<Conference> run() {
      *         // Code here.
      *         // To throw 404
@@ -124,7 +235,7 @@ public class ConferenceApi {
      *         Conference conference = somehow.getConference();
      *         return new TxResult<>(conference);
      *     }
-     * }
+     * });
      * // Actually the NotFoundException will be thrown here.
      * return result.getResult();
      * </pre>
@@ -195,68 +306,114 @@ public class ConferenceApi {
         if (user == null) {
             throw new UnauthorizedException("Authorization required");
         }
-        String displayName = profileForm.getDisplayName();
-        TeeShirtSize teeShirtSize = profileForm.getTeeShirtSize();
+        final String userId = getUserId(user);
+        // In a transaction, so that concurrent saves each get their own version.
+        return Transactions.run(Operation.SAVE_PROFILE, Key.create(Profile.class, userId),
+                new Work<Profile>() {
+            @Override
+            public Profile run() {
+                String displayName = profileForm.getDisplayName();
+                TeeShirtSize teeShirtSize = profileForm.getTeeShirtSize();
 
-        Profile profile = ofy().load().key(Key.create(Profile.class, getUserId(user))).now();
-        if (profile == null) {
-            // Populate displayName and teeShirtSize with the default values if null.
-            if (displayName == null) {
-                displayName = extractDefaultDisplayNameFromEmail(user.getEmail());
-            }
-            if (teeShirtSize == null) {
-                teeShirtSize = TeeShirtSize.NOT_SPECIFIED;
+                Profile profile = ofy().load().key(Key.create(Profile.class, userId)).now();
+                if (profile == null) {
+                    // Populate displayName and teeShirtSize with the default values if null.
+                    if (displayName == null) {
+                        displayName = extractDefaultDisplayNameFromEmail(user.getEmail());
+                    }
+                    if (teeShirtSize == null) {
+                        teeShirtSize = TeeShirtSize.NOT_SPECIFIED;
+                    }
+                    profile = new Profile(userId, displayName, user.getEmail(), teeShirtSize);
+                } else {
+                    profile.update(displayName, teeShirtSize);
+                }
+                ofy().save().entity(profile).now();
+                return profile;
             }
-            profile = new Profile(getUserId(user), displayName, user.getEmail(), teeShirtSize);
-        } else {
-            profile.update(displayName, teeShirtSize);
-        }
-        ofy().save().entity(profile).now();
-        return profile;
+        });
     }
 
     /**
      * Creates a new Conference object and stores it to the datastore.
      *
+     * A client which may retry sends an idempotency key, the same for each try: a try after the
+     * one which created the Conference returns that Conference, and writes nothing.
+     *
      * @param user A user who invokes this method, null when the user is not signed in.
      * @param conferenceForm A ConferenceForm object representing user's inputs.
+     * @param idempotencyKey A key the client made up for the request, or null.
      * @return A newly created Conference Object.
      * @throws UnauthorizedException when the user is not signed in.
      */
     @ApiMethod(name = "createConference", path = "conference", httpMethod = HttpMethod.POST)
-    public Conference createConference(final User user, final ConferenceForm conferenceForm)
+    public Conference createConference(final User user, final ConferenceForm conferenceForm,
+                                       @Nullable @Named("idempotencyKey")
+                                       final String idempotencyKey)
         throws UnauthorizedException {
         if (user == null) {
             throw new UnauthorizedException("Authorization required");
         }
+        IdempotentRequest.checkKey(idempotencyKey);
+        final String userId = getUserId(user);
+        final Key<Profile> profileKey = Key.create(Profile.class, userId);
+        // A retry of a request which went through returns the Conference it created.
+        String created = IdempotentRequest.resultOf(profileKey, CREATE_CONFERENCE, idempotencyKey);
+        if (created != null) {
+            return ofy().load().key(Key.<Conference>create(created)).now();
+        }
         // Allocate Id first, in order to make the transaction idempotent.
-        Key<Profile> profileKey = Key.create(Profile.class, getUserId(user));
         final Key<Conference> conferenceKey = factory().allocateId(profileKey, Conference.class);
         final long conferenceId = conferenceKey.getId();
         final Queue queue = QueueFactory.getDefaultQueue();
-        final String userId = getUserId(user);
         // Start a transaction.
-        Conference conference = ofy().transact(new Work<Conference>() {
+        Conference conference = Transactions.run(Operation.CREATE_CONFERENCE, profileKey,
+                new Work<Conference>() {
             @Override
             public Conference run() {
-                // Fetch user's Profile.
+                // Fetch user's Profile, the ConferencesCreated and the IdempotentRequest in the
+                // same batch get.
+                LoadResult<ConferencesCreated> conferencesCreatedLoad =
+                        ofy().load().key(ConferencesCreated.keyOf(profileKey));
+                ofy().load().key(profileKey);
+                String created = IdempotentRequest.resultOf(
+                        profileKey, CREATE_CONFERENCE, idempotencyKey);
+                if (created != null) {
+                    // A concurrent try of the same request got there first.
+                    return ofy().load().key(Key.<Conference>create(created)).now();
+                }
                 Profile profile = getProfileFromUser(user, userId);
                 Conference conference = new Conference(conferenceId, userId, conferenceForm);
-                // Save Conference and Profile.
-                ofy().save().entities(conference, profile).now();
+                ConferencesCreated conferencesCreated =
+                        conferencesCreatedOf(conferencesCreatedLoad, profileKey);
+                conferencesCreated.put(conference);
+                // Save Conference, Profile and ConferencesCreated.
+                ofy().save().entities(conference, profile, conferencesCreated).now();
+                if (idempotencyKey != null) {
+                    ofy().save().entity(new IdempotentRequest(profileKey, CREATE_CONFERENCE,
+                            idempotencyKey, conference.getWebsafeKey())).now();
+                }
                 queue.add(ofy().getTransaction(),
                         TaskOptions.Builder.withUrl("/tasks/send_confirmation_email")
                         .param("email", profile.getMainEmail())
                         .param("conferenceInfo", conference.toString()));
+                enqueueFacetCountsUpdate(queue, Collections.<String>emptySet(),
+                        FacetCount.idsOf(conference));
+                AutocompleteService.saveTerms(conference);
                 return conference;
             }
         });
+        AutocompleteService.publish(conference);
         return conference;
     }
 
     /**
      * Updates the existing Conference with the given conferenceId.
      *
+     * When the form has an editVersion, the update is a compare-and-set: it is only applied if
+     * the Conference still has that editVersion. Registrations don't change the editVersion, so
+     * only a concurrent edit makes it fail.
+     *
      * @param user A user who invokes this method, null when the user is not signed in.
      * @param conferenceForm A ConferenceForm object representing user's inputs.
      * @param websafeConferenceKey The String representation of the Conference key.
@@ -264,6 +421,7 @@ public class ConferenceApi {
      * @throws UnauthorizedException when the user is not signed in.
      * @throws NotFoundException when there is no Conference with the given conferenceId.
      * @throws ForbiddenException when the user is not the owner of the Conference.
+     * @throws ConflictException when the Conference was edited since the given editVersion.
      */
     @ApiMethod(
             name = "updateConference",
@@ -278,34 +436,58 @@ public class ConferenceApi {
         if (user == null) {
             throw new UnauthorizedException("Authorization required");
         }
-        final String userId = getUserId(user);
+        final Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+        final Key<Profile> profileKey = Key.create(Profile.class, getUserId(user));
+        // A Conference is a child of its organizer's Profile, so the key tells the owner.
+        // If the user is not the owner, throw a 403 error.
+        if (!profileKey.equals(conferenceKey.getParent())) {
+            throw new ForbiddenException("Only the owner can update the conference.");
+        }
+        final Queue queue = QueueFactory.getDefaultQueue();
         // Update the conference with the conferenceForm sent from the client.
         // Need a transaction because we need to safely preserve the number of allocated seats.
-        TxResult<Conference> result = ofy().transact(new Work<TxResult<Conference>>() {
+        TxResult<Conference> result = Transactions.run(Operation.UPDATE_CONFERENCE, conferenceKey,
+                new Work<TxResult<Conference>>() {
             @Override
             public TxResult<Conference> run() {
+                // Start all loads before using any, so that they go in one batch get.
+                LoadResult<Conference> conferenceLoad = ofy().load().key(conferenceKey);
+                LoadResult<ConferencesCreated> conferencesCreatedLoad =
+                        ofy().load().key(ConferencesCreated.keyOf(profileKey));
                 // If there is no Conference with the id, throw a 404 error.
-                Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
-                Conference conference = ofy().load().key(conferenceKey).now();
+                Conference conference = conferenceLoad.now();
                 if (conference == null) {
                     return new TxResult<>(
                             new NotFoundException("No Conference found with the key: "
                                     + websafeConferenceKey));
                 }
-                // If the user is not the owner, throw a 403 error.
-                Profile profile = ofy().load().key(Key.create(Profile.class, userId)).now();
-                if (profile == null ||
-                        !conference.getOrganizerUserId().equals(userId)) {
-                    return new TxResult<>(
-                            new ForbiddenException("Only the owner can update the conference."));
+                // If another edit came in since the form was filled, throw a 409 error. Retrying
+                // can't help, so this returns instead of letting the transaction retry.
+                Long editVersion = conferenceForm.getEditVersion();
+                if (editVersion != null && editVersion != conference.getEditVersion()) {
+                    return new TxResult<>(new ConflictException(
+                            "The conference was edited since version " + editVersion
+                                    + ", it is now at version " + conference.getEditVersion()));
                 }
+                Set<String> facetIdsBefore = FacetCount.idsOf(conference);
                 conference.updateWithConferenceForm(conferenceForm);
-                ofy().save().entity(conference).now();
+                ConferencesCreated conferencesCreated =
+                        conferencesCreatedOf(conferencesCreatedLoad, profileKey);
+                conferencesCreated.put(conference);
+                ofy().save().entities(conference, conferencesCreated).now();
+                enqueueFacetCountsUpdate(queue, facetIdsBefore, FacetCount.idsOf(conference));
+                AutocompleteService.saveTerms(conference);
+                // A larger capacity frees seats for the users waiting.
+                if (conference.hasWaitlistToPromote()) {
+                    WaitlistService.enqueuePromotion(queue, websafeConferenceKey);
+                }
                 return new TxResult<>(conference);
             }
         });
-        // NotFoundException or ForbiddenException is actually thrown here.
-        return result.getResult();
+        // NotFoundException or ConflictException is actually thrown here.
+        Conference conference = result.getResult();
+        AutocompleteService.publish(conference);
+        return conference;
     }
 
     @ApiMethod(
@@ -314,12 +496,7 @@ public class ConferenceApi {
             httpMethod = HttpMethod.GET
     )
     public Announcement getAnnouncement() {
-        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
-        Object message = memcacheService.get(Constants.MEMCACHE_ANNOUNCEMENTS_KEY);
-        if (message != null) {
-            return new Announcement(message.toString());
-        }
-        return null;
+        return AnnouncementService.get();
     }
 
     /**
@@ -381,25 +558,167 @@ public class ConferenceApi {
      * Normally this kind of method is supposed to get invoked by a GET HTTP method,
      * but we do it with POST, in order to receive conferenceQueryForm Object via the POST body.
      *
+     * When the form has a limit, the result also has the cursor for the next page. When the
+     * query runs out of its QueryBudget, the result has the Conferences gathered so far, the
+     * cursor to continue from and the truncated flag. A query with a != filter has no cursor, so
+     * it can't have a limit either, and it fails rather than run out of its budget.
+     *
      * @param conferenceQueryForm A form object representing the query.
-     * @return A List of Conferences that match the query.
+     * @return A ConferenceQueryResult with the Conferences that match the query.
      */
     @ApiMethod(
             name = "queryConferences",
             path = "queryConferences",
             httpMethod = HttpMethod.POST
     )
-    public List<Conference> queryConferences(ConferenceQueryForm conferenceQueryForm) {
-        Iterable<Conference> conferenceIterable = conferenceQueryForm.getQuery();
-        List<Conference> result = new ArrayList<>(0);
-        List<Key<Profile>> organizersKeyList = new ArrayList<>(0);
-        for (Conference conference : conferenceIterable) {
-            organizersKeyList.add(Key.create(Profile.class, conference.getOrganizerUserId()));
+    public ConferenceQueryResult queryConferences(ConferenceQueryForm conferenceQueryForm) {
+        if (!QueryExplainer.shouldSample()) {
+            return queryConferences(conferenceQueryForm, QueryBudget.forCurrentRequest());
+        }
+        // Explain a sample of the real queries, so that expensive shapes show up in the logs.
+        RpcCounter.start();
+        long startMillis = System.currentTimeMillis();
+        ConferenceQueryResult result;
+        int rpcCount;
+        try {
+            result = queryConferences(conferenceQueryForm, QueryBudget.forCurrentRequest());
+        } finally {
+            rpcCount = RpcCounter.stop();
+        }
+        QueryExplainer.log(QueryExplainer.explain(conferenceQueryForm, result, rpcCount,
+                System.currentTimeMillis() - startMillis));
+        return result;
+    }
+
+    /**
+     * Runs a query and explains it: its shape, the indexes serving it and what it cost.
+     *
+     * Only administrators can call this method.
+     *
+     * @param user A user who invokes this method, null when the user is not signed in.
+     * @param conferenceQueryForm A form object representing the query.
+     * @return A QueryExplanation.
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws ForbiddenException when the user is not an administrator.
+     */
+    @ApiMethod(
+            name = "explainQuery",
+            path = "explainQuery",
+            httpMethod = HttpMethod.POST
+    )
+    public QueryExplanation explainQuery(final User user, ConferenceQueryForm conferenceQueryForm)
+            throws UnauthorizedException, ForbiddenException {
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        if (!isAdmin()) {
+            throw new ForbiddenException("Only administrators can explain queries.");
+        }
+        RpcCounter.start();
+        long startMillis = System.currentTimeMillis();
+        ConferenceQueryResult result;
+        int rpcCount;
+        try {
+            result = queryConferences(conferenceQueryForm, QueryBudget.forCurrentRequest());
+        } finally {
+            rpcCount = RpcCounter.stop();
+        }
+        return QueryExplainer.explain(conferenceQueryForm, result, rpcCount,
+                System.currentTimeMillis() - startMillis);
+    }
+
+    /**
+     * Queries Conferences within the given budget.
+     *
+     * @param conferenceQueryForm A form object representing the query.
+     * @param budget The QueryBudget for the Conferences and their organizers.
+     * @return A ConferenceQueryResult with the Conferences that match the query.
+     */
+    ConferenceQueryResult queryConferences(ConferenceQueryForm conferenceQueryForm,
+                                           QueryBudget budget) {
+        // Run a keys-only query, then batch get the entities. Conferences which are already in
+        // the session cache or memcache are served from there, and only the misses hit the
+        // datastore, in a single batch get.
+        QueryResultIterator<Key<Conference>> keyIterator =
+                conferenceQueryForm.getQuery().keys().iterator();
+        List<Key<Conference>> conferenceKeys = new ArrayList<>();
+        Set<Key<Profile>> organizerKeys = new HashSet<>();
+        Cursor nextCursor = null;
+        boolean truncated = false;
+        while (keyIterator.hasNext()) {
+            Cursor cursor = keyIterator.getCursor();
+            Key<Conference> conferenceKey = keyIterator.next();
+            // The budget pays for the Conference and for its organizer, the parent of its key,
+            // unless the organizer is already loaded for another Conference.
+            Key<Profile> organizerKey = conferenceKey.getParent();
+            if (!budget.spend(organizerKeys.contains(organizerKey) ? 1 : 2)) {
+                // Continue from this Conference next time. A query with a != filter has no
+                // cursor, and a page it can't continue from would look like the last one.
+                if (cursor == null) {
+                    throw new IllegalArgumentException(
+                            "The query matches too many conferences for a != filter");
+                }
+                nextCursor = cursor;
+                truncated = true;
+                break;
+            }
+            conferenceKeys.add(conferenceKey);
+            organizerKeys.add(organizerKey);
+        }
+        if (!truncated && conferenceQueryForm.getLimit() > 0
+                && conferenceKeys.size() == conferenceQueryForm.getLimit()) {
+            nextCursor = keyIterator.getCursor();
+        }
+        Map<Key<Conference>, Conference> conferenceMap = ofy().load().keys(conferenceKeys);
+        List<Conference> result = new ArrayList<>(conferenceKeys.size());
+        for (Key<Conference> conferenceKey : conferenceKeys) {
+            Conference conference = conferenceMap.get(conferenceKey);
+            // The index can briefly point at a Conference which is already gone.
+            if (conference == null) {
+                continue;
+            }
             result.add(conference);
         }
         // To avoid separate datastore gets for each Conference, pre-fetch the Profiles.
-        ofy().load().keys(organizersKeyList);
-        return result;
+        ofy().load().keys(organizerKeys);
+        return new ConferenceQueryResult(result,
+                nextCursor == null ? null : nextCursor.toWebSafeString(), truncated,
+                conferenceKeys.size());
+    }
+
+    /**
+     * Returns conference names and topics starting with the given prefix, for typeahead.
+     *
+     * Served from the copy of the prefix table in the memory of the instance, so it is cheap to
+     * call on every keystroke.
+     *
+     * @param prefix What the user has typed so far.
+     * @return a List of Suggestions.
+     */
+    @ApiMethod(
+            name = "autocompleteConferences",
+            path = "autocomplete",
+            httpMethod = HttpMethod.GET
+    )
+    public List<Suggestion> autocompleteConferences(@Named("prefix") final String prefix) {
+        return AutocompleteService.lookup(prefix);
+    }
+
+    /**
+     * Returns the number of Conferences for each city, topic and month.
+     *
+     * The counts are maintained incrementally on Conference writes, so the filter UI can render
+     * them without running any Conference query.
+     *
+     * @return a list of FacetCounts.
+     */
+    @ApiMethod(
+            name = "getFacets",
+            path = "facets",
+            httpMethod = HttpMethod.GET
+    )
+    public List<FacetCount> getFacets() {
+        return ofy().load().type(FacetCount.class).list();
     }
 
     /**
@@ -421,16 +740,27 @@ public class ConferenceApi {
             throw new UnauthorizedException("Authorization required");
         }
         String userId = getUserId(user);
-        return ofy().load().type(Conference.class)
-                .ancestor(Key.create(Profile.class, userId))
-                .order("name").list();
+        ConferencesCreated conferencesCreated =
+                ConferencesCreated.get(Key.create(Profile.class, userId));
+        // The Map is in the order of the keys.
+        return new ArrayList<>(
+                ofy().load().keys(conferencesCreated.getConferenceKeys()).values());
     }
 
     /**
      * Registers to the specified Conference.
      *
+     * The seat and the Registration are saved in a transaction on the Conference's entity group
+     * only. The user's Profile.conferenceKeysToAttend is updated by a task right after. While
+     * there may be registrations taken before there were Registrations, which are only listed in
+     * the Profile, the Profile is checked for one before the transaction.
+     *
+     * A client which may retry sends an idempotency key, the same for each try: a try after the
+     * one which registered returns true, and doesn't run the transaction.
+     *
      * @param user An user who invokes this method, null when the user is not signed in.
      * @param websafeConferenceKey The String representation of the Conference Key.
+     * @param idempotencyKey A key the client made up for the request, or null.
      * @return Boolean true when success, otherwise false
      * @throws UnauthorizedException when the user is not signed in.
      * @throws NotFoundException when there is no Conference with the given conferenceId.
@@ -442,33 +772,65 @@ public class ConferenceApi {
     )
     public WrappedBoolean registerForConference(final User user,
                                          @Named("websafeConferenceKey")
-                                         final String websafeConferenceKey)
+                                         final String websafeConferenceKey,
+                                         @Nullable @Named("idempotencyKey")
+                                         final String idempotencyKey)
         throws UnauthorizedException, NotFoundException, ForbiddenException, ConflictException {
         // If not signed in, throw a 401 error.
         if (user == null) {
             throw new UnauthorizedException("Authorization required");
         }
+        IdempotentRequest.checkKey(idempotencyKey);
         final String userId = getUserId(user);
-        TxResult<Boolean> result = ofy().transact(new Work<TxResult<Boolean>>() {
+        final Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+        final Key<Registration> registrationKey = Registration.keyOf(conferenceKey, userId);
+        final Key<Profile> profileKey = Key.create(Profile.class, userId);
+        // Load the Registration and the Profile in one batch get, usually from memcache.
+        LoadResult<Registration> registrationLoad = ofy().load().key(registrationKey);
+        LoadResult<Profile> profileLoad = ofy().load().key(profileKey);
+        // A retry of a request which went through succeeds again.
+        if (isRetryOf(registrationLoad.now(), idempotencyKey)) {
+            return new WrappedBoolean(true);
+        }
+        if (Registration.legacyRegistrations() && Registration.isLegacy(
+                registrationLoad.now(), profileLoad.now(), websafeConferenceKey)) {
+            throw new ConflictException("You have already registered for this conference");
+        }
+        // The task lists the Conference in the Profile, so make sure there is one.
+        if (profileLoad.now() == null) {
+            createProfileIfMissing(user, userId);
+        }
+        final Queue queue = QueueFactory.getDefaultQueue();
+        TxResult<Boolean> result = Transactions.run(Operation.REGISTER, conferenceKey,
+                new Work<TxResult<Boolean>>() {
             @Override
             public TxResult<Boolean> run() {
-                Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
-                Conference conference = ofy().load().key(conferenceKey).now();
+                // Start all loads before using any, so that they go in one batch get.
+                LoadResult<Conference> conferenceLoad = ofy().load().key(conferenceKey);
+                LoadResult<Registration> registrationLoad = ofy().load().key(registrationKey);
+                Conference conference = conferenceLoad.now();
                 // 404 when there is no Conference with the given conferenceId.
                 if (conference == null) {
                     return new TxResult<>(new NotFoundException(
                             "No Conference found with key: " + websafeConferenceKey));
                 }
                 // Registration happens here.
-                Profile profile = getProfileFromUser(user, userId);
-                if (profile.getConferenceKeysToAttend().contains(websafeConferenceKey)) {
+                Registration registration = registrationLoad.now();
+                if (isRetryOf(registration, idempotencyKey)) {
+                    // A concurrent try of the same request got there first.
+                    return new TxResult<>(true);
+                } else if (registration != null) {
                     return new TxResult<>(new ConflictException("You have already registered for this conference"));
-                } else if (conference.getSeatsAvailable() <= 0) {
-                    return new TxResult<>(new ConflictException("There are no seats available."));
+                } else if (!conference.isOpenForRegistration()) {
+                    // The seats which free up while users are waiting are kept for them.
+                    return new TxResult<>(new ConflictException("There are no seats available. "
+                            + "Join the waitlist to be registered when one frees up."));
                 } else {
-                    profile.addToConferenceKeysToAttend(websafeConferenceKey);
                     conference.bookSeats(1);
-                    ofy().save().entities(profile, conference).now();
+                    ofy().save().entities(conference,
+                            new Registration(conferenceKey, userId, idempotencyKey)).now();
+                    Registration.enqueueProfileSync(
+                            queue, websafeConferenceKey, Collections.singleton(userId));
                     return new TxResult<>(true);
                 }
             }
@@ -477,9 +839,23 @@ public class ConferenceApi {
         return new WrappedBoolean(result.getResult());
     }
 
+    /**
+     * Tells whether a registration request is a retry of the one which saved a Registration.
+     */
+    private static boolean isRetryOf(Registration registration, String idempotencyKey) {
+        return registration != null && idempotencyKey != null
+                && idempotencyKey.equals(registration.getIdempotencyKey());
+    }
+
     /**
      * Unregister from the specified Conference.
      *
+     * Gives back the seat and deletes the Registration in a transaction on the Conference's
+     * entity group only, and the user's Profile.conferenceKeysToAttend is updated by a task right
+     * after. While there may be registrations taken before there were Registrations, the
+     * transaction also reads the Profile and drops the Conference from it, as a Profile which
+     * lists a Conference without a Registration is what those look like.
+     *
      * @param user An user who invokes this method, null when the user is not signed in.
      * @param websafeConferenceKey The String representation of the Conference Key to unregister
      *                             from.
@@ -501,29 +877,240 @@ public class ConferenceApi {
             throw new UnauthorizedException("Authorization required");
         }
         final String userId = getUserId(user);
-        TxResult<Boolean> result = ofy().transact(new Work<TxResult<Boolean>>() {
+        final Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+        final Key<Registration> registrationKey = Registration.keyOf(conferenceKey, userId);
+        final Key<Profile> profileKey = Key.create(Profile.class, userId);
+        final boolean legacy = Registration.legacyRegistrations();
+        final Queue queue = QueueFactory.getDefaultQueue();
+        TxResult<Boolean> result = Transactions.run(Operation.UNREGISTER, conferenceKey,
+                new Work<TxResult<Boolean>>() {
             @Override
             public TxResult<Boolean> run() {
-                Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
-                Conference conference = ofy().load().key(conferenceKey).now();
+                // Start all loads before using any, so that they go in one batch get.
+                LoadResult<Conference> conferenceLoad = ofy().load().key(conferenceKey);
+                LoadResult<Registration> registrationLoad = ofy().load().key(registrationKey);
+                LoadResult<Profile> profileLoad = legacy ? ofy().load().key(profileKey) : null;
+                Conference conference = conferenceLoad.now();
                 // 404 when there is no Conference with the given conferenceId.
                 if (conference == null) {
                     return new TxResult<>(new NotFoundException(
                             "No Conference found with key: " + websafeConferenceKey));
                 }
                 // Un-registering from the Conference.
-                Profile profile = getProfileFromUser(user, userId);
-                if (profile.getConferenceKeysToAttend().contains(websafeConferenceKey)) {
+                Registration registration = registrationLoad.now();
+                Profile profile = legacy ? profileLoad.now() : null;
+                if (registration == null
+                        && !Registration.isLegacy(registration, profile, websafeConferenceKey)) {
+                    return new TxResult<>(false);
+                }
+                conference.giveBackSeats(1);
+                ofy().delete().key(registrationKey).now();
+                ofy().save().entity(conference).now();
+                if (!legacy) {
+                    Registration.enqueueProfileSync(
+                            queue, websafeConferenceKey, Collections.singleton(userId));
+                } else if (profile != null
+                        && profile.getConferenceKeysToAttend().contains(websafeConferenceKey)) {
                     profile.unregisterFromConference(websafeConferenceKey);
-                    conference.giveBackSeats(1);
-                    ofy().save().entities(profile, conference).now();
+                    ofy().save().entity(profile).now();
+                }
+                if (conference.hasWaitlistToPromote()) {
+                    WaitlistService.enqueuePromotion(queue, websafeConferenceKey);
+                }
+                return new TxResult<>(true);
+            }
+        });
+        // NotFoundException is actually thrown here.
+        return new WrappedBoolean(result.getResult());
+    }
+
+    /**
+     * Puts the user on the waitlist of a Conference, to be registered when a seat frees up.
+     *
+     * Users are registered in the order they joined, by a task enqueued when seats free up, so
+     * the client doesn't need to retry registerForConference. Joining twice keeps the first
+     * place.
+     *
+     * @param user A user who invokes this method, null when the user is not signed in.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return Boolean true when the user is on the waitlist.
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws NotFoundException when there is no Conference with the given key.
+     * @throws ConflictException when the user is already registered.
+     */
+    @ApiMethod(
+            name = "joinWaitlist",
+            path = "conference/{websafeConferenceKey}/waitlist",
+            httpMethod = HttpMethod.POST
+    )
+    public WrappedBoolean joinWaitlist(final User user,
+                                       @Named("websafeConferenceKey")
+                                       final String websafeConferenceKey)
+            throws UnauthorizedException, NotFoundException, ForbiddenException, ConflictException {
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        final String userId = getUserId(user);
+        final Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+        // Load the Registration and the Profile in one batch get, usually from memcache.
+        LoadResult<Registration> registrationLoad =
+                ofy().load().key(Registration.keyOf(conferenceKey, userId));
+        LoadResult<Profile> profileLoad = ofy().load().key(Key.create(Profile.class, userId));
+        if (Registration.legacyRegistrations() && Registration.isLegacy(
+                registrationLoad.now(), profileLoad.now(), websafeConferenceKey)) {
+            throw new ConflictException("You have already registered for this conference");
+        }
+        // The promotion lists the Conference in the Profile, so make sure there is one.
+        if (profileLoad.now() == null) {
+            createProfileIfMissing(user, userId);
+        }
+        final Queue queue = QueueFactory.getDefaultQueue();
+        TxResult<Boolean> result = Transactions.run(Operation.JOIN_WAITLIST, conferenceKey,
+                new Work<TxResult<Boolean>>() {
+            @Override
+            public TxResult<Boolean> run() {
+                // Start all loads before using any, so that they go in one batch get.
+                LoadResult<Conference> conferenceLoad = ofy().load().key(conferenceKey);
+                LoadResult<Registration> registrationLoad =
+                        ofy().load().key(Registration.keyOf(conferenceKey, userId));
+                LoadResult<WaitlistEntry> entryLoad =
+                        ofy().load().key(WaitlistEntry.keyOf(conferenceKey, userId));
+                Conference conference = conferenceLoad.now();
+                if (conference == null) {
+                    return new TxResult<>(new NotFoundException(
+                            "No Conference found with key: " + websafeConferenceKey));
+                }
+                if (registrationLoad.now() != null) {
+                    return new TxResult<>(new ConflictException(
+                            "You have already registered for this conference"));
+                }
+                if (entryLoad.now() != null) {
                     return new TxResult<>(true);
-                } else {
+                }
+                conference.addToWaitlist();
+                ofy().save().entities(conference,
+                        new WaitlistEntry(conferenceKey, userId)).now();
+                // Seats may have freed up already, with nobody waiting for them.
+                if (conference.hasWaitlistToPromote()) {
+                    WaitlistService.enqueuePromotion(queue, websafeConferenceKey);
+                }
+                return new TxResult<>(true);
+            }
+        });
+        // NotFoundException or ConflictException is actually thrown here.
+        return new WrappedBoolean(result.getResult());
+    }
+
+    /**
+     * Takes the user off the waitlist of a Conference.
+     *
+     * @param user A user who invokes this method, null when the user is not signed in.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return Boolean true when the user was on the waitlist, otherwise false.
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws NotFoundException when there is no Conference with the given key.
+     */
+    @ApiMethod(
+            name = "leaveWaitlist",
+            path = "conference/{websafeConferenceKey}/waitlist",
+            httpMethod = HttpMethod.DELETE
+    )
+    public WrappedBoolean leaveWaitlist(final User user,
+                                        @Named("websafeConferenceKey")
+                                        final String websafeConferenceKey)
+            throws UnauthorizedException, NotFoundException, ForbiddenException, ConflictException {
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        final Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+        final Key<WaitlistEntry> entryKey = WaitlistEntry.keyOf(conferenceKey, getUserId(user));
+        TxResult<Boolean> result = Transactions.run(Operation.LEAVE_WAITLIST, conferenceKey,
+                new Work<TxResult<Boolean>>() {
+            @Override
+            public TxResult<Boolean> run() {
+                // Start all loads before using any, so that they go in one batch get.
+                LoadResult<Conference> conferenceLoad = ofy().load().key(conferenceKey);
+                LoadResult<WaitlistEntry> entryLoad = ofy().load().key(entryKey);
+                Conference conference = conferenceLoad.now();
+                if (conference == null) {
+                    return new TxResult<>(new NotFoundException(
+                            "No Conference found with key: " + websafeConferenceKey));
+                }
+                if (entryLoad.now() == null) {
                     return new TxResult<>(false);
                 }
+                conference.removeFromWaitlist(1);
+                ofy().delete().key(entryKey).now();
+                ofy().save().entity(conference).now();
+                return new TxResult<>(true);
             }
         });
         // NotFoundException is actually thrown here.
         return new WrappedBoolean(result.getResult());
     }
+
+    /**
+     * Returns a page of the attendees of a Conference, in the order of their user ids.
+     *
+     * Runs an ancestor query on the Registrations of the Conference, and loads the Profiles of
+     * the page in one batch get, so a page costs the same however many users there are.
+     *
+     * @param user A user who invokes this method, null when the user is not signed in.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @param cursor The websafe cursor of the page, as returned with the previous page, or null
+     *               for the first page.
+     * @param limit The page size, DEFAULT_ATTENDEES_PAGE_SIZE when null, and at most
+     *              MAX_ATTENDEES_PAGE_SIZE.
+     * @return an AttendeeListResult with the attendees and the cursor of the next page.
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws ForbiddenException when the user is not the organizer of the Conference.
+     * @throws NotFoundException when there is no Conference with the given key.
+     */
+    @ApiMethod(
+            name = "getAttendees",
+            path = "conference/{websafeConferenceKey}/attendees",
+            httpMethod = HttpMethod.GET
+    )
+    public AttendeeListResult getAttendees(final User user,
+                                           @Named("websafeConferenceKey")
+                                           final String websafeConferenceKey,
+                                           @Nullable @Named("cursor") final String cursor,
+                                           @Nullable @Named("limit") final Integer limit)
+            throws UnauthorizedException, ForbiddenException, NotFoundException {
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+        // A Conference is a child of its organizer's Profile, so the key tells the organizer.
+        if (!Key.create(Profile.class, getUserId(user)).equals(conferenceKey.getParent())) {
+            throw new ForbiddenException("Only the organizer can list the attendees.");
+        }
+        if (ofy().load().key(conferenceKey).now() == null) {
+            throw new NotFoundException("No Conference found with key: " + websafeConferenceKey);
+        }
+        int pageSize = limit == null ? DEFAULT_ATTENDEES_PAGE_SIZE
+                : Math.max(1, Math.min(limit, MAX_ATTENDEES_PAGE_SIZE));
+        Query<Registration> query = ofy().load().type(Registration.class)
+                .ancestor(conferenceKey).limit(pageSize);
+        if (cursor != null) {
+            query = query.startAt(Cursor.fromWebSafeString(cursor));
+        }
+        QueryResultIterator<Registration> iterator = query.iterator();
+        List<Registration> registrations = new ArrayList<>(pageSize);
+        List<Key<Profile>> profileKeys = new ArrayList<>(pageSize);
+        while (iterator.hasNext()) {
+            Registration registration = iterator.next();
+            registrations.add(registration);
+            profileKeys.add(Key.create(Profile.class, registration.getUserId()));
+        }
+        Map<Key<Profile>, Profile> profiles = ofy().load().keys(profileKeys);
+        List<Attendee> attendees = new ArrayList<>(registrations.size());
+        for (int i = 0; i < registrations.size(); i++) {
+            attendees.add(new Attendee(registrations.get(i), profiles.get(profileKeys.get(i))));
+        }
+        // A full page may be followed by more attendees.
+        String nextCursor = registrations.size() == pageSize
+                ? iterator.getCursor().toWebSafeString() : null;
+        return new AttendeeListResult(attendees, nextCursor);
+    }
 }
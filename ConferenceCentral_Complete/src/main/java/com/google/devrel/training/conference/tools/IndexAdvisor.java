@@ -0,0 +1,623 @@
+package com.google.devrel.training.conference.tools;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Field;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Filter;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.SortKey;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+/**
+ * Reports which datastore indexes the filter shapes of ConferenceQueryForm need, and how many
+ * index writes each Conference mutation pays for a given datastore-indexes.xml.
+ *
+ * A filter shape is the set of fields with an equality filter plus the field with the inequality
+ * filter, if any. ConferenceQueryForm always sorts by the inequality field and then by name, so
+ * an index serves a shape when it is the equality fields followed by that sort order. Shapes
+ * with several equality fields can also be served by merge-joining narrower indexes which share
+ * the same sort order, which is what the proposed minimal index set relies on.
+ *
+ * With a sort key other than NAME, the query is sorted by that key alone, and its shapes are
+ * limited to equality filters on ConferenceQueryForm.SORT_FILTER_FIELDS plus an inequality filter
+ * on the sort key. A query with a filter on one of ConferenceQueryForm.DATE_FILTER_FIELDS is
+ * likewise limited to equality filters on ConferenceQueryForm.SORT_FILTER_FIELDS besides it.
+ * Descending properties are written with a leading "-", as in Objectify.
+ *
+ * Run from the project directory with:
+ * <pre>
+ * mvn compile exec:java -Dexec.mainClass=com.google.devrel.training.conference.tools.IndexAdvisor
+ *     -Dexec.args="[path to datastore-indexes.xml] [topics per conference]"
+ * </pre>
+ */
+public class IndexAdvisor {
+
+    private static final String KIND = "Conference";
+
+    private static final String DEFAULT_INDEXES_FILE =
+            "src/main/webapp/WEB-INF/datastore-indexes.xml";
+
+    private static final int DEFAULT_TOPICS_PER_CONFERENCE = 3;
+
+    /**
+     * The property every query of ConferenceQueryForm is finally sorted by.
+     */
+    private static final String SORT_PROPERTY = "name";
+
+    /**
+     * The only list property of Conference, which explodes composite indexes.
+     */
+    private static final String LIST_PROPERTY = "topics";
+
+    /**
+     * Properties of Conference with a built-in single-property index.
+     */
+    private static final List<String> INDEXED_PROPERTIES = ImmutableList.of(
+            "name", "topics", "city", "month", "maxAttendees", "seatsAvailable", "startDate",
+            "endDate", "yearMonth", "isoWeek");
+
+    /**
+     * Properties of Conference which are only indexed in rare states, and so are counted as not
+     * indexed. seatsAvailable is only indexed while the Conference is nearly sold out.
+     */
+    private static final List<String> CONDITIONALLY_INDEXED_PROPERTIES =
+            ImmutableList.of("seatsAvailable");
+
+    /**
+     * Enum representing how a shape is served.
+     */
+    public static enum PlanType {
+        BUILT_IN, COMPOSITE, MERGE_JOIN, NOT_SERVED
+    }
+
+    /**
+     * A composite index over Conference.
+     */
+    public static class CompositeIndex {
+
+        private final boolean ancestor;
+
+        private final List<String> properties;
+
+        public CompositeIndex(boolean ancestor, List<String> properties) {
+            this.ancestor = ancestor;
+            this.properties = ImmutableList.copyOf(properties);
+        }
+
+        public boolean isAncestor() {
+            return ancestor;
+        }
+
+        public List<String> getProperties() {
+            return properties;
+        }
+
+        /**
+         * Returns the number of rows a Conference has in this index.
+         *
+         * @param topics The number of topics of the Conference.
+         * @return the number of index rows.
+         */
+        public int rowsPerEntity(int topics) {
+            return containsProperty(LIST_PROPERTY) ? topics : 1;
+        }
+
+        /**
+         * Returns whether this index contains the property, in either direction.
+         *
+         * @param property The property name.
+         * @return true when the index contains the property.
+         */
+        public boolean containsProperty(String property) {
+            return properties.contains(property) || properties.contains("-" + property);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof CompositeIndex)) {
+                return false;
+            }
+            CompositeIndex other = (CompositeIndex) o;
+            return ancestor == other.ancestor && properties.equals(other.properties);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * properties.hashCode() + (ancestor ? 1 : 0);
+        }
+
+        @Override
+        public String toString() {
+            return KIND + (ancestor ? "(ancestor)" : "") + "[" + Joiner.on(", ").join(properties)
+                    + "]";
+        }
+    }
+
+    /**
+     * A filter shape ConferenceQueryForm can produce.
+     */
+    public static class QueryShape {
+
+        private final Set<Field> equalityFields;
+
+        private final Field inequalityField;
+
+        private final SortKey sortKey;
+
+        public QueryShape(Set<Field> equalityFields, Field inequalityField) {
+            this(equalityFields, inequalityField, null);
+        }
+
+        public QueryShape(Set<Field> equalityFields, Field inequalityField, SortKey sortKey) {
+            this.equalityFields = equalityFields.isEmpty()
+                    ? EnumSet.noneOf(Field.class) : EnumSet.copyOf(equalityFields);
+            this.inequalityField = inequalityField;
+            this.sortKey = sortKey == SortKey.NAME ? null : sortKey;
+        }
+
+        public Set<Field> getEqualityFields() {
+            return Collections.unmodifiableSet(equalityFields);
+        }
+
+        public Field getInequalityField() {
+            return inequalityField;
+        }
+
+        /**
+         * Returns the sort order of the query, which every index serving it must end with.
+         *
+         * @return a List of property names.
+         */
+        public List<String> getSortOrder() {
+            if (sortKey != null) {
+                return ImmutableList.of(sortKey.getOrder());
+            }
+            if (inequalityField == null) {
+                return ImmutableList.of(SORT_PROPERTY);
+            }
+            return ImmutableList.of(inequalityField.getFieldName(), SORT_PROPERTY);
+        }
+
+        private Set<String> getEqualityProperties() {
+            Set<String> properties = new HashSet<>();
+            for (Field field : equalityFields) {
+                properties.add(field.getFieldName());
+            }
+            return properties;
+        }
+
+        @Override
+        public String toString() {
+            List<String> filters = new ArrayList<>();
+            for (Field field : equalityFields) {
+                filters.add(field.getFieldName() + " ==");
+            }
+            if (inequalityField != null) {
+                filters.add(inequalityField.getFieldName() + " <>");
+            }
+            String shape = filters.isEmpty() ? "(no filters)" : Joiner.on(", ").join(filters);
+            return sortKey == null ? shape : shape + " order " + sortKey.getOrder();
+        }
+    }
+
+    /**
+     * How a shape is served by a set of indexes.
+     */
+    public static class QueryPlan {
+
+        private final PlanType type;
+
+        private final List<CompositeIndex> indexes;
+
+        private QueryPlan(PlanType type, List<CompositeIndex> indexes) {
+            this.type = type;
+            this.indexes = ImmutableList.copyOf(indexes);
+        }
+
+        public PlanType getType() {
+            return type;
+        }
+
+        public List<CompositeIndex> getIndexes() {
+            return indexes;
+        }
+
+        @Override
+        public String toString() {
+            return indexes.isEmpty() ? type.toString()
+                    : type + " " + Joiner.on(" + ").join(indexes);
+        }
+    }
+
+    /**
+     * Returns the filter shape of a query.
+     *
+     * @param form The query.
+     * @return the QueryShape.
+     */
+    public static QueryShape shapeOf(ConferenceQueryForm form) {
+        Set<Field> equalityFields = EnumSet.noneOf(Field.class);
+        Field inequalityField = null;
+        for (Filter filter : form.getFilters()) {
+            if (filter.getOperator().isInequalityFilter()) {
+                inequalityField = filter.getField();
+            } else {
+                equalityFields.add(filter.getField());
+            }
+        }
+        return new QueryShape(equalityFields, inequalityField, form.getSortKey());
+    }
+
+    /**
+     * Enumerates all filter shapes ConferenceQueryForm can produce, sorted by name or by another
+     * sort key, with or without a date filter.
+     *
+     * @return a List of QueryShapes.
+     */
+    public static List<QueryShape> enumerateAllShapes() {
+        List<QueryShape> shapes = new ArrayList<>(enumerateShapes());
+        shapes.addAll(enumerateSortShapes());
+        shapes.addAll(enumerateDateShapes());
+        return shapes;
+    }
+
+    /**
+     * Enumerates the filter shapes ConferenceQueryForm can produce sorted by name, without a
+     * filter on DATE_FILTER_FIELDS.
+     *
+     * A field with both an equality and an inequality filter is left out, since the equality
+     * filter alone decides the result.
+     *
+     * @return a List of QueryShapes.
+     */
+    public static List<QueryShape> enumerateShapes() {
+        List<QueryShape> shapes = new ArrayList<>();
+        Set<Field> fields = EnumSet.complementOf(
+                EnumSet.copyOf(ConferenceQueryForm.DATE_FILTER_FIELDS));
+        List<Field> inequalityFields = new ArrayList<>();
+        inequalityFields.add(null);
+        inequalityFields.addAll(fields);
+        for (Field inequalityField : inequalityFields) {
+            List<Field> equalityCandidates = new ArrayList<>(fields);
+            equalityCandidates.remove(inequalityField);
+            for (int mask = 0; mask < 1 << equalityCandidates.size(); mask++) {
+                Set<Field> equalityFields = EnumSet.noneOf(Field.class);
+                for (int i = 0; i < equalityCandidates.size(); i++) {
+                    if ((mask & 1 << i) != 0) {
+                        equalityFields.add(equalityCandidates.get(i));
+                    }
+                }
+                shapes.add(new QueryShape(equalityFields, inequalityField));
+            }
+        }
+        return shapes;
+    }
+
+    /**
+     * Enumerates the filter shapes ConferenceQueryForm can produce with a sort key other than
+     * NAME.
+     *
+     * @return a List of QueryShapes.
+     */
+    public static List<QueryShape> enumerateSortShapes() {
+        List<QueryShape> shapes = new ArrayList<>();
+        List<Field> equalityCandidates = new ArrayList<>(ConferenceQueryForm.SORT_FILTER_FIELDS);
+        for (SortKey sortKey : SortKey.values()) {
+            if (sortKey == SortKey.NAME) {
+                continue;
+            }
+            List<Field> inequalityFields = new ArrayList<>();
+            inequalityFields.add(null);
+            for (Field field : Field.values()) {
+                if (field.getFieldName().equals(sortKey.getPropertyName())) {
+                    inequalityFields.add(field);
+                }
+            }
+            for (Field inequalityField : inequalityFields) {
+                for (int mask = 0; mask < 1 << equalityCandidates.size(); mask++) {
+                    Set<Field> equalityFields = EnumSet.noneOf(Field.class);
+                    for (int i = 0; i < equalityCandidates.size(); i++) {
+                        if ((mask & 1 << i) != 0) {
+                            equalityFields.add(equalityCandidates.get(i));
+                        }
+                    }
+                    shapes.add(new QueryShape(equalityFields, inequalityField, sortKey));
+                }
+            }
+        }
+        return shapes;
+    }
+
+    /**
+     * Enumerates the filter shapes ConferenceQueryForm can produce with a filter on one of
+     * DATE_FILTER_FIELDS, sorted by name.
+     *
+     * @return a List of QueryShapes.
+     */
+    public static List<QueryShape> enumerateDateShapes() {
+        List<QueryShape> shapes = new ArrayList<>();
+        List<Field> equalityCandidates = new ArrayList<>(ConferenceQueryForm.SORT_FILTER_FIELDS);
+        for (Field dateField : ConferenceQueryForm.DATE_FILTER_FIELDS) {
+            for (int mask = 0; mask < 1 << equalityCandidates.size(); mask++) {
+                Set<Field> equalityFields = EnumSet.noneOf(Field.class);
+                for (int i = 0; i < equalityCandidates.size(); i++) {
+                    if ((mask & 1 << i) != 0) {
+                        equalityFields.add(equalityCandidates.get(i));
+                    }
+                }
+                shapes.add(new QueryShape(equalityFields, dateField));
+                equalityFields.add(dateField);
+                shapes.add(new QueryShape(equalityFields, null));
+            }
+        }
+        return shapes;
+    }
+
+    /**
+     * Returns the shapes of enumerateSortShapes the given indexes do not serve.
+     *
+     * @param indexes The available composite indexes.
+     * @return a List of QueryShapes.
+     */
+    public static List<QueryShape> unservedSortShapes(Collection<CompositeIndex> indexes) {
+        return unserved(enumerateSortShapes(), indexes);
+    }
+
+    /**
+     * Returns the shapes of enumerateDateShapes the given indexes do not serve.
+     *
+     * @param indexes The available composite indexes.
+     * @return a List of QueryShapes.
+     */
+    public static List<QueryShape> unservedDateShapes(Collection<CompositeIndex> indexes) {
+        return unserved(enumerateDateShapes(), indexes);
+    }
+
+    private static List<QueryShape> unserved(List<QueryShape> shapes,
+                                             Collection<CompositeIndex> indexes) {
+        List<QueryShape> unserved = new ArrayList<>();
+        for (QueryShape shape : shapes) {
+            if (plan(shape, indexes).getType() == PlanType.NOT_SERVED) {
+                unserved.add(shape);
+            }
+        }
+        return unserved;
+    }
+
+    /**
+     * Finds how the given shape is served by the given indexes.
+     *
+     * @param shape The filter shape.
+     * @param indexes The available composite indexes.
+     * @return the QueryPlan.
+     */
+    public static QueryPlan plan(QueryShape shape, Collection<CompositeIndex> indexes) {
+        List<String> sortOrder = shape.getSortOrder();
+        Set<String> equalityProperties = shape.getEqualityProperties();
+        // Sorting by a single property alone is served by the built-in index.
+        if (equalityProperties.isEmpty() && sortOrder.size() == 1) {
+            return new QueryPlan(PlanType.BUILT_IN, Collections.<CompositeIndex>emptyList());
+        }
+        // Candidates are the indexes ending with the sort order and starting with equality
+        // properties of the shape only.
+        List<CompositeIndex> candidates = new ArrayList<>();
+        for (CompositeIndex index : indexes) {
+            List<String> properties = index.getProperties();
+            if (index.isAncestor() || properties.size() < sortOrder.size()) {
+                continue;
+            }
+            int prefixSize = properties.size() - sortOrder.size();
+            Set<String> prefix = new HashSet<>(properties.subList(0, prefixSize));
+            if (properties.subList(prefixSize, properties.size()).equals(sortOrder)
+                    && prefix.size() == prefixSize
+                    && equalityProperties.containsAll(prefix)) {
+                if (prefix.equals(equalityProperties)) {
+                    return new QueryPlan(PlanType.COMPOSITE, ImmutableList.of(index));
+                }
+                if (!prefix.isEmpty()) {
+                    candidates.add(index);
+                }
+            }
+        }
+        // Without equality properties, only an index of the sort order alone serves the shape,
+        // and there was none.
+        if (equalityProperties.isEmpty()) {
+            return new QueryPlan(PlanType.NOT_SERVED, Collections.<CompositeIndex>emptyList());
+        }
+        // Greedily pick the candidates covering the most remaining equality properties.
+        Set<String> uncovered = new HashSet<>(equalityProperties);
+        List<CompositeIndex> chosen = new ArrayList<>();
+        while (!uncovered.isEmpty()) {
+            CompositeIndex best = null;
+            int bestCovered = 0;
+            for (CompositeIndex candidate : candidates) {
+                Set<String> covered = new HashSet<>(candidate.getProperties());
+                covered.retainAll(uncovered);
+                if (covered.size() > bestCovered) {
+                    best = candidate;
+                    bestCovered = covered.size();
+                }
+            }
+            if (best == null) {
+                return new QueryPlan(PlanType.NOT_SERVED, Collections.<CompositeIndex>emptyList());
+            }
+            chosen.add(best);
+            uncovered.removeAll(best.getProperties());
+        }
+        return new QueryPlan(PlanType.MERGE_JOIN, chosen);
+    }
+
+    /**
+     * Returns the smallest index set serving every shape, relying on merge-joins.
+     *
+     * That is one index per equality field and sort order, including the sort keys, plus the
+     * ancestor index used by getConferencesCreated.
+     *
+     * @return a List of CompositeIndexes.
+     */
+    public static List<CompositeIndex> minimalIndexes() {
+        Set<CompositeIndex> indexes = new LinkedHashSet<>();
+        indexes.add(new CompositeIndex(true, ImmutableList.of(SORT_PROPERTY)));
+        for (QueryShape shape : enumerateAllShapes()) {
+            if (shape.getEqualityFields().size() > 1) {
+                continue;
+            }
+            List<String> properties = new ArrayList<>();
+            for (Field field : shape.getEqualityFields()) {
+                properties.add(field.getFieldName());
+            }
+            properties.addAll(shape.getSortOrder());
+            if (properties.size() > 1) {
+                indexes.add(new CompositeIndex(false, properties));
+            }
+        }
+        return new ArrayList<>(indexes);
+    }
+
+    /**
+     * Returns the number of composite index rows of a Conference.
+     *
+     * @param indexes The composite indexes.
+     * @param property Only count the indexes containing this property, or all when null.
+     * @param topics The number of topics of the Conference.
+     * @return the number of rows.
+     */
+    public static int compositeRows(Collection<CompositeIndex> indexes, String property,
+                                    int topics) {
+        int rows = 0;
+        for (CompositeIndex index : indexes) {
+            if (property == null || index.containsProperty(property)) {
+                rows += index.rowsPerEntity(topics);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Returns the datastore writes for putting a new Conference: 2 for the entity, 2 per indexed
+     * property value and 1 per composite index row.
+     *
+     * @param indexes The composite indexes.
+     * @param topics The number of topics of the Conference.
+     * @return the number of writes.
+     */
+    public static int writesForNewEntity(Collection<CompositeIndex> indexes, int topics) {
+        int indexedValues = INDEXED_PROPERTIES.size() - CONDITIONALLY_INDEXED_PROPERTIES.size()
+                - 1 + topics;
+        return 2 + 2 * indexedValues + compositeRows(indexes, null, topics);
+    }
+
+    /**
+     * Returns the datastore writes for putting an existing Conference with one property changed:
+     * 1 for the entity, 4 per modified indexed property value and 2 per modified composite index
+     * row.
+     *
+     * @param indexes The composite indexes.
+     * @param property The property that changed.
+     * @param topics The number of topics of the Conference.
+     * @return the number of writes.
+     */
+    public static int writesForPropertyChange(Collection<CompositeIndex> indexes,
+                                              String property, int topics) {
+        int modifiedValues = LIST_PROPERTY.equals(property) ? topics : 1;
+        if (CONDITIONALLY_INDEXED_PROPERTIES.contains(property)) {
+            modifiedValues = 0;
+        }
+        return 1 + 4 * modifiedValues + 2 * compositeRows(indexes, property, topics);
+    }
+
+    /**
+     * Reads the Conference composite indexes from a datastore-indexes.xml.
+     *
+     * @param inputStream The content of datastore-indexes.xml.
+     * @return a List of CompositeIndexes.
+     * @throws Exception when the file can not be parsed.
+     */
+    public static List<CompositeIndex> parseIndexes(InputStream inputStream) throws Exception {
+        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(inputStream);
+        NodeList indexNodes = document.getElementsByTagName("datastore-index");
+        List<CompositeIndex> indexes = new ArrayList<>();
+        for (int i = 0; i < indexNodes.getLength(); i++) {
+            Element indexElement = (Element) indexNodes.item(i);
+            if (!KIND.equals(indexElement.getAttribute("kind"))) {
+                continue;
+            }
+            NodeList propertyNodes = indexElement.getElementsByTagName("property");
+            List<String> properties = new ArrayList<>();
+            for (int j = 0; j < propertyNodes.getLength(); j++) {
+                Element propertyElement = (Element) propertyNodes.item(j);
+                String direction = "desc".equals(propertyElement.getAttribute("direction"))
+                        ? "-" : "";
+                properties.add(direction + propertyElement.getAttribute("name"));
+            }
+            indexes.add(new CompositeIndex(
+                    "true".equals(indexElement.getAttribute("ancestor")), properties));
+        }
+        return indexes;
+    }
+
+    private static void printReport(String title, List<CompositeIndex> indexes, int topics) {
+        System.out.println("== " + title + ": " + indexes.size() + " composite indexes");
+        int notServed = 0;
+        for (QueryShape shape : enumerateAllShapes()) {
+            QueryPlan plan = plan(shape, indexes);
+            if (plan.getType() == PlanType.NOT_SERVED) {
+                notServed++;
+            }
+            System.out.println(String.format("  %-50s %s", shape, plan));
+        }
+        System.out.println(String.format("  Shapes not served: %d", notServed));
+        System.out.println(String.format("  Index writes with %d topics:", topics));
+        System.out.println(String.format("    createConference: %d",
+                writesForNewEntity(indexes, topics)));
+        for (String property : INDEXED_PROPERTIES) {
+            System.out.println(String.format("    change of %s: %d", property,
+                    writesForPropertyChange(indexes, property, topics)));
+        }
+        System.out.println();
+    }
+
+    public static void main(String[] args) throws Exception {
+        String indexesFile = args.length > 0 ? args[0] : DEFAULT_INDEXES_FILE;
+        int topics = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_TOPICS_PER_CONFERENCE;
+        List<CompositeIndex> currentIndexes;
+        try (InputStream inputStream = new FileInputStream(indexesFile)) {
+            currentIndexes = parseIndexes(inputStream);
+        }
+        printReport("Current (" + indexesFile + ")", currentIndexes, topics);
+        List<CompositeIndex> minimalIndexes = minimalIndexes();
+        printReport("Proposed minimal set", minimalIndexes, topics);
+
+        System.out.println("<datastore-indexes autoGenerate=\"false\">");
+        for (CompositeIndex index : minimalIndexes) {
+            System.out.println(String.format("    <datastore-index kind=\"%s\" ancestor=\"%s\">",
+                    KIND, index.isAncestor()));
+            for (String property : index.getProperties()) {
+                boolean descending = property.startsWith("-");
+                System.out.println(String.format(
+                        "        <property name=\"%s\" direction=\"%s\"/>",
+                        descending ? property.substring(1) : property,
+                        descending ? "desc" : "asc"));
+            }
+            System.out.println("    </datastore-index>");
+        }
+        System.out.println("</datastore-indexes>");
+    }
+}
@@ -24,6 +24,10 @@ var app = angular.module('conferenceApp',
                     templateUrl: '/partials/create_conferences.html',
                     controller: 'CreateConferenceCtrl'
                 }).
+                when('/conference/edit/:websafeConferenceKey', {
+                    templateUrl: '/partials/create_conferences.html',
+                    controller: 'CreateConferenceCtrl'
+                }).
                 when('/conference/detail/:websafeConferenceKey', {
                     templateUrl: '/partials/conference_detail.html',
                     controller: 'ConferenceDetailCtrl'
@@ -72,7 +76,8 @@ app.filter('startFrom', function () {
  *
  */
 app.constant('HTTP_ERRORS', {
-    'UNAUTHORIZED': 401
+    'UNAUTHORIZED': 401,
+    'CONFLICT': 409
 });
 
 
@@ -126,10 +126,11 @@ conferenceApp.controllers.controller('MyProfileCtrl',
  * @name CreateConferenceCtrl
  *
  * @description
- * A controller used for the Create conferences page.
+ * A controller used for the Create conferences page, and for the Edit conference page, which
+ * has the websafeConferenceKey of the conference in its url.
  */
 conferenceApp.controllers.controller('CreateConferenceCtrl',
-    function ($scope, $log, oauth2Provider, HTTP_ERRORS) {
+    function ($scope, $log, $routeParams, oauth2Provider, HTTP_ERRORS) {
 
         /**
          * The conference object being edited in the page.
@@ -137,6 +138,12 @@ conferenceApp.controllers.controller('CreateConferenceCtrl',
          */
         $scope.conference = $scope.conference || {};
 
+        /**
+         * The key of the conference being edited, undefined when creating one.
+         * @type {string}
+         */
+        $scope.websafeConferenceKey = $routeParams.websafeConferenceKey;
+
         /**
          * Holds the default values for the input candidates for city select.
          * @type {string[]}
@@ -197,6 +204,44 @@ conferenceApp.controllers.controller('CreateConferenceCtrl',
                 $scope.isValidDates();
         }
 
+        /**
+         * Initializes the Edit conference page.
+         * Loads the conference into the form, with the editVersion it has, which updateConference
+         * sends back so that it doesn't overwrite an edit made since.
+         */
+        $scope.init = function () {
+            if (!$scope.websafeConferenceKey) {
+                return;
+            }
+            $scope.loading = true;
+            gapi.client.conference.getConference({
+                websafeConferenceKey: $scope.websafeConferenceKey
+            }).execute(function (resp) {
+                $scope.$apply(function () {
+                    $scope.loading = false;
+                    if (resp.error) {
+                        // The request has failed.
+                        var errorMessage = resp.error.message || '';
+                        $scope.messages = 'Failed to get the conference : ' + errorMessage;
+                        $scope.alertStatus = 'warning';
+                        $log.error($scope.messages);
+                    } else {
+                        // The request has succeeded.
+                        $scope.conference = {
+                            name: resp.result.name,
+                            description: resp.result.description,
+                            topics: resp.result.topics,
+                            city: resp.result.city,
+                            startDate: resp.result.startDate && new Date(resp.result.startDate),
+                            endDate: resp.result.endDate && new Date(resp.result.endDate),
+                            maxAttendees: resp.result.maxAttendees,
+                            editVersion: resp.result.editVersion
+                        };
+                    }
+                });
+            });
+        };
+
         /**
          * Invokes the conference.createConference API.
          *
@@ -234,6 +279,55 @@ conferenceApp.controllers.controller('CreateConferenceCtrl',
                     });
                 });
         };
+
+        /**
+         * Invokes the conference.updateConference API, with the editVersion of the last load.
+         *
+         * @param conferenceForm the form object.
+         */
+        $scope.updateConference = function (conferenceForm) {
+            if (!$scope.isValidConference(conferenceForm)) {
+                return;
+            }
+
+            $scope.loading = true;
+            gapi.client.conference.updateConference(angular.extend({
+                websafeConferenceKey: $scope.websafeConferenceKey
+            }, $scope.conference)).
+                execute(function (resp) {
+                    $scope.$apply(function () {
+                        $scope.loading = false;
+                        if (resp.error) {
+                            // The request has failed.
+                            var errorMessage = resp.error.message || '';
+                            $scope.alertStatus = 'warning';
+                            $log.error('Failed to update the conference : ' + errorMessage
+                                + ' Conference : ' + JSON.stringify($scope.conference));
+
+                            if (resp.code && resp.code == HTTP_ERRORS.UNAUTHORIZED) {
+                                oauth2Provider.showLoginModal();
+                                return;
+                            }
+                            if (resp.code && resp.code == HTTP_ERRORS.CONFLICT) {
+                                // Someone else edited the conference since it was loaded: show
+                                // their edit, for the user to make theirs again on top of it.
+                                $scope.init();
+                                $scope.messages = 'The conference was changed by someone else '
+                                    + 'since you opened it. Its current version is shown; '
+                                    + 'make your changes again and save.';
+                                return;
+                            }
+                            $scope.messages = 'Failed to update the conference : ' + errorMessage;
+                        } else {
+                            // The request has succeeded.
+                            $scope.messages = 'The conference has been updated : ' + resp.result.name;
+                            $scope.alertStatus = 'success';
+                            $scope.conference.editVersion = resp.result.editVersion;
+                            $log.info($scope.messages + ' : ' + JSON.stringify(resp.result));
+                        }
+                    });
+                });
+        };
     });
 
 /**
@@ -264,7 +358,9 @@ conferenceApp.controllers.controller('ShowConferenceCtrl', function ($scope, $lo
         {enumValue: 'CITY', displayName: 'City'},
         {enumValue: 'TOPIC', displayName: 'Topic'},
         {enumValue: 'MONTH', displayName: 'Start month'},
-        {enumValue: 'MAX_ATTENDEES', displayName: 'Max Attendees'}
+        {enumValue: 'MAX_ATTENDEES', displayName: 'Max Attendees'},
+        {enumValue: 'START_DATE', displayName: 'Start date (yyyy-mm-dd)'},
+        {enumValue: 'YEAR_MONTH', displayName: 'Start year and month (yyyymm)'}
     ]
 
     /**
@@ -287,6 +383,13 @@ conferenceApp.controllers.controller('ShowConferenceCtrl', function ($scope, $lo
      */
     $scope.conferences = [];
 
+    /**
+     * Holds the cursor to load more of the conferences of the last query from, if it was cut
+     * short.
+     * @type {string}
+     */
+    $scope.nextCursor = null;
+
     /**
      * Holds the state if offcanvas is enabled.
      *
@@ -408,6 +511,7 @@ conferenceApp.controllers.controller('ShowConferenceCtrl', function ($scope, $lo
      */
     $scope.queryConferences = function () {
         $scope.submitted = false;
+        $scope.nextCursor = null;
         if ($scope.selectedTab == 'ALL') {
             $scope.queryConferencesAll();
         } else if ($scope.selectedTab == 'YOU_HAVE_CREATED') {
@@ -419,20 +523,30 @@ conferenceApp.controllers.controller('ShowConferenceCtrl', function ($scope, $lo
 
     /**
      * Invokes the conference.queryConferences API.
+     *
+     * @param more true to append the Conferences after $scope.nextCursor, with the filters of the
+     *     last query.
      */
-    $scope.queryConferencesAll = function () {
+    $scope.queryConferencesAll = function (more) {
         var sendFilters = {
             filters: []
         }
-        for (var i = 0; i < $scope.filters.length; i++) {
-            var filter = $scope.filters[i];
-            if (filter.field && filter.operator && filter.value) {
-                sendFilters.filters.push({
-                    field: filter.field.enumValue,
-                    operator: filter.operator.enumValue,
-                    value: filter.value
-                });
+        if (more) {
+            sendFilters.filters = $scope.lastFilters;
+            sendFilters.cursor = $scope.nextCursor;
+        } else {
+            for (var i = 0; i < $scope.filters.length; i++) {
+                var filter = $scope.filters[i];
+                if (filter.field && filter.operator && filter.value) {
+                    sendFilters.filters.push({
+                        field: filter.field.enumValue,
+                        operator: filter.operator.enumValue,
+                        value: filter.value
+                    });
+                }
             }
+            $scope.lastFilters = sendFilters.filters;
+            $scope.nextCursor = null;
         }
         $scope.loading = true;
         gapi.client.conference.queryConferences(sendFilters).
@@ -452,16 +566,33 @@ conferenceApp.controllers.controller('ShowConferenceCtrl', function ($scope, $lo
                         $scope.alertStatus = 'success';
                         $log.info($scope.messages);
 
-                        $scope.conferences = [];
+                        if (!more) {
+                            $scope.conferences = [];
+                        }
                         angular.forEach(resp.items, function (conference) {
                             $scope.conferences.push(conference);
                         });
+                        // The server stops a query which runs out of its budget, and returns the
+                        // cursor to continue from.
+                        $scope.nextCursor = resp.nextCursor || null;
+                        if (resp.truncated) {
+                            $scope.messages = 'Showing the first ' + $scope.conferences.length
+                                + ' matching conferences. Load more to see the rest.';
+                            $scope.alertStatus = 'warning';
+                        }
                     }
                     $scope.submitted = true;
                 });
             });
     }
 
+    /**
+     * Appends the conferences after the ones the last query returned.
+     */
+    $scope.loadMoreConferences = function () {
+        $scope.queryConferencesAll(true);
+    };
+
     /**
      * Invokes the conference.getConferencesCreated method.
      */
@@ -33,6 +33,10 @@ public class ConferenceTest {
 
     private static final int MONTH = 3;
 
+    private static final int YEAR_MONTH = 201403;
+
+    private static final int ISO_WEEK = 201413;
+
     private static final int CAP = 500;
 
     private Date startDate;
@@ -84,6 +88,8 @@ public class ConferenceTest {
         assertEquals(startDate, conference.getStartDate());
         assertEquals(endDate, conference.getEndDate());
         assertEquals(MONTH, conference.getMonth());
+        assertEquals(YEAR_MONTH, conference.getYearMonth());
+        assertEquals(ISO_WEEK, conference.getIsoWeek());
         assertEquals(CAP, conference.getMaxAttendees());
         assertEquals(CAP, conference.getSeatsAvailable());
         // Test if they are defensive copies.
@@ -131,4 +137,25 @@ public class ConferenceTest {
         Conference conference = new Conference(ID, ORGANIZER_USER_ID, conferenceForm);
         conference.giveBackSeats(1);
     }
+
+    @Test
+    public void testIfNearlySoldOut() throws Exception {
+        Conference.IfNearlySoldOut ifNearlySoldOut = new Conference.IfNearlySoldOut();
+        assertFalse(ifNearlySoldOut.matchesValue(0));
+        assertTrue(ifNearlySoldOut.matchesValue(1));
+        assertTrue(ifNearlySoldOut.matchesValue(Conference.NEARLY_SOLD_OUT_SEATS - 1));
+        assertFalse(ifNearlySoldOut.matchesValue(Conference.NEARLY_SOLD_OUT_SEATS));
+        assertFalse(ifNearlySoldOut.matchesValue(CAP));
+    }
+
+    @Test
+    public void testIsoWeekAtYearBoundary() throws Exception {
+        // January 1st 2016 is a Friday, so it belongs to the last week of 2015.
+        DateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
+        Date newYear = dateFormat.parse("01/01/2016");
+        Conference conference = new Conference(ID, ORGANIZER_USER_ID, new ConferenceForm(NAME,
+                DESCRIPTION, topics, CITY, newYear, newYear, CAP));
+        assertEquals(201601, conference.getYearMonth());
+        assertEquals(201553, conference.getIsoWeek());
+    }
 }
@@ -0,0 +1,141 @@
+package com.google.devrel.training.conference.domain;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Field;
+import com.google.devrel.training.conference.spi.ConferenceApi;
+import com.googlecode.objectify.Key;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tests for FacetCount POJO, and the updates of the counts.
+ */
+public class FacetCountTest {
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setApplyAllHighRepJobPolicy());
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    @Test
+    public void testFacetCount() throws Exception {
+        FacetCount facetCount = new FacetCount(FacetCount.createId(Field.CITY, "Tokyo"));
+        assertEquals(Field.CITY, facetCount.getField());
+        assertEquals("Tokyo", facetCount.getValue());
+        assertEquals(0, facetCount.getCount());
+        facetCount.addToCount(2);
+        assertEquals(2, facetCount.getCount());
+        // Never below zero.
+        facetCount.addToCount(-3);
+        assertEquals(0, facetCount.getCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidId() throws Exception {
+        new FacetCount("Tokyo");
+    }
+
+    @Test
+    public void testIdsOf() throws Exception {
+        DateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
+        ConferenceForm conferenceForm = new ConferenceForm("GCP Live", null,
+                ImmutableList.of("Cloud", "Platform"), "San Francisco",
+                dateFormat.parse("03/25/2014"), dateFormat.parse("03/26/2014"), 500);
+        Conference conference = new Conference(123456L, "123456789", conferenceForm);
+        assertEquals(ImmutableSet.of("CITY:San Francisco", "TOPIC:Cloud", "TOPIC:Platform",
+                "MONTH:3"), FacetCount.idsOf(conference));
+    }
+
+    @Test
+    public void testIdsOfWithoutStartDate() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm("GCP Live", null,
+                ImmutableList.of("Cloud"), "San Francisco", null, null, 500);
+        Conference conference = new Conference(123456L, "123456789", conferenceForm);
+        assertEquals(ImmutableSet.of("CITY:San Francisco", "TOPIC:Cloud"),
+                FacetCount.idsOf(conference));
+    }
+
+    @Test
+    public void testApplyUpdateOnce() throws Exception {
+        String[] tokyo = {FacetCount.createId(Field.CITY, "Tokyo")};
+        String[] cloud = {FacetCount.createId(Field.TOPIC, "Cloud")};
+        FacetCount.applyUpdate("update1", tokyo, null);
+        FacetCount.applyUpdate("update2", tokyo, null);
+        // A retry of the first task.
+        FacetCount.applyUpdate("update1", tokyo, null);
+        FacetCount.applyUpdate("update3", cloud, tokyo);
+        FacetCount.applyUpdate("update3", cloud, tokyo);
+        assertEquals(1, getFacets().get("CITY:Tokyo").longValue());
+        assertEquals(1, getFacets().get("TOPIC:Cloud").longValue());
+
+        // A removal which arrives before its addition doesn't show as a negative count.
+        String[] osaka = {FacetCount.createId(Field.CITY, "Osaka")};
+        FacetCount.applyUpdate("update4", null, osaka);
+        assertNull(getFacets().get("CITY:Osaka"));
+    }
+
+    @Test
+    public void testApplyUpdateInParts() throws Exception {
+        String[] topics = new String[30];
+        for (int i = 0; i < topics.length; i++) {
+            topics[i] = FacetCount.createId(Field.TOPIC, "Topic" + i);
+        }
+        FacetCount.applyUpdate("update1", topics, null);
+        FacetCount.applyUpdate("update1", topics, null);
+        Map<String, Long> facets = getFacets();
+        assertEquals(30, facets.size());
+        assertEquals(1, facets.get("TOPIC:Topic29").longValue());
+        assertNotNull(ofy().load().key(FacetUpdate.keyOf(FacetUpdate.createId("update1", 7)))
+                .now());
+    }
+
+    @Test
+    public void testRecountAll() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm("GCP Live", null,
+                ImmutableList.of("Cloud", "Platform"), "Tokyo", null, null, 500);
+        ofy().save().entities(new Conference(1L, "123456789", conferenceForm),
+                new Conference(2L, "123456789", conferenceForm)).now();
+        // A count left by a Conference which is gone, and a drifted one.
+        FacetCount.applyUpdate("update1", new String[] {"CITY:Osaka", "TOPIC:Cloud"}, null);
+        FacetCount.recountAll();
+        ofy().clear();
+        Map<String, Long> facets = getFacets();
+        assertEquals(3, facets.size());
+        assertEquals(2, facets.get("CITY:Tokyo").longValue());
+        assertEquals(2, facets.get("TOPIC:Cloud").longValue());
+        assertEquals(2, facets.get("TOPIC:Platform").longValue());
+        assertNull(ofy().load().key(Key.create(FacetCount.class, "CITY:Osaka")).now());
+    }
+
+    private static Map<String, Long> getFacets() {
+        Map<String, Long> facets = new HashMap<>();
+        for (FacetCount facetCount : new ConferenceApi().getFacets()) {
+            facets.put(FacetCount.createId(facetCount.getField(), facetCount.getValue()),
+                    facetCount.getCount());
+        }
+        return facets;
+    }
+}
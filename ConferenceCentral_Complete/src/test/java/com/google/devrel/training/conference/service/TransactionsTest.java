@@ -0,0 +1,168 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.devrel.training.conference.domain.FacetCount;
+import com.google.devrel.training.conference.service.Transactions.Operation;
+import com.google.devrel.training.conference.service.Transactions.Stats;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ConcurrentModificationException;
+import java.util.Random;
+
+/**
+ * Tests for Transactions and RetryPolicy.
+ */
+public class TransactionsTest {
+
+    private static final Operation OPERATION = Operation.UPDATE_FACET_COUNT;
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setApplyAllHighRepJobPolicy());
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        Transactions.setPolicy(OPERATION, new RetryPolicy(3, 0, 0, 1000));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Transactions.setPolicy(OPERATION, OPERATION.getDefaultPolicy());
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    @Test
+    public void testBackoff() throws Exception {
+        RetryPolicy policy = new RetryPolicy(5, 10, 40, 1000);
+        Random random = new Random(0);
+        long[] maxBackoffs = {10, 20, 40, 40, 40};
+        for (int failedTries = 1; failedTries <= maxBackoffs.length; failedTries++) {
+            for (int i = 0; i < 100; i++) {
+                long backoff = policy.backoffMillis(failedTries, random);
+                assertTrue(backoff >= 0 && backoff <= maxBackoffs[failedTries - 1]);
+            }
+        }
+        assertEquals(0, new RetryPolicy(3, 0, 0, 1000).backoffMillis(2, random));
+    }
+
+    @Test
+    public void testParse() throws Exception {
+        assertEquals("8,20,500,5000", RetryPolicy.parse("8, 20, 500, 5000").toString());
+        try {
+            RetryPolicy.parse("8,20,500");
+            fail("A policy needs four numbers.");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+        try {
+            RetryPolicy.parse("0,20,500,5000");
+            fail("A policy needs a try.");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testRetriesUntilItSucceeds() throws Exception {
+        Key<FacetCount> key = Key.create(FacetCount.class, "retried");
+        assertEquals("done", Transactions.run(OPERATION, key, new FailingWork(2)));
+        Stats stats = Transactions.getStats(OPERATION, key);
+        assertEquals(1, stats.getRuns());
+        assertEquals(3, stats.getTries());
+        assertEquals(2, stats.getConflicts());
+        assertEquals(0, stats.getGiveUps());
+    }
+
+    @Test
+    public void testGivesUpAfterMaxTries() throws Exception {
+        Key<FacetCount> key = Key.create(FacetCount.class, "given up");
+        FailingWork work = new FailingWork(Integer.MAX_VALUE);
+        try {
+            Transactions.run(OPERATION, key, work);
+            fail("The transaction should give up.");
+        } catch (ConcurrentModificationException e) {
+            // Expected.
+        }
+        assertEquals(3, work.tries);
+        Stats stats = Transactions.getStats(OPERATION, key);
+        assertEquals(3, stats.getConflicts());
+        assertEquals(1, stats.getGiveUps());
+        assertTrue(Transactions.report().contains(OPERATION.toString()));
+    }
+
+    @Test
+    public void testGivesUpAtTheDeadline() throws Exception {
+        // No try starts at or after the deadline, so a deadline of 0 leaves only the first.
+        Transactions.setPolicy(OPERATION, new RetryPolicy(100, 20, 20, 0));
+        Key<FacetCount> key = Key.create(FacetCount.class, "late");
+        FailingWork work = new FailingWork(Integer.MAX_VALUE);
+        try {
+            Transactions.run(OPERATION, key, work);
+            fail("The transaction should give up.");
+        } catch (ConcurrentModificationException e) {
+            // Expected.
+        }
+        assertEquals(1, work.tries);
+    }
+
+    @Test
+    public void testPublishesVersionsOnCommit() throws Exception {
+        final Key<FacetCount> key = Key.create(FacetCount.class, "versioned");
+        VersionCache.update(key, 1);
+        Transactions.run(OPERATION, key, new Work<String>() {
+            private int tries;
+
+            @Override
+            public String run() {
+                tries++;
+                VersionCache.publish(key, tries + 1);
+                // The old version is dropped at once, and nothing is published before the
+                // commit, so the failed try publishes nothing.
+                assertNull(VersionCache.get(key));
+                if (tries == 1) {
+                    throw new ConcurrentModificationException();
+                }
+                return "done";
+            }
+        });
+        assertEquals(Long.valueOf(3), VersionCache.get(key));
+
+        // Outside a transaction, the version is only dropped, for the next read to cache.
+        VersionCache.publish(key, 4);
+        assertNull(VersionCache.get(key));
+    }
+
+    /**
+     * A transaction which fails on a concurrent modification a given number of times.
+     */
+    private static class FailingWork implements Work<String> {
+
+        private final int failures;
+
+        private int tries;
+
+        private FailingWork(int failures) {
+            this.failures = failures;
+        }
+
+        @Override
+        public String run() {
+            tries++;
+            if (tries <= failures) {
+                throw new ConcurrentModificationException("Conflict " + tries);
+            }
+            return "done";
+        }
+    }
+}
@@ -3,16 +3,34 @@ package com.google.devrel.training.conference.spi;
 import static com.google.devrel.training.conference.service.OfyService.ofy;
 import static org.junit.Assert.*;
 
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.users.User;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
 import com.google.common.collect.ImmutableList;
 import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceQueryResult;
+import com.google.devrel.training.conference.domain.QueryExplanation;
+import com.google.devrel.training.conference.domain.Suggestion;
 import com.google.devrel.training.conference.form.ConferenceForm;
 import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.google.devrel.training.conference.service.AnnouncementService;
+import com.google.devrel.training.conference.service.AutocompleteService;
+import com.google.devrel.training.conference.service.QueryBudget;
+import com.google.devrel.training.conference.service.QueryExplainer;
+import com.google.devrel.training.conference.service.RpcCounter;
+import com.google.devrel.training.conference.servlet.BackfillConferencesServlet;
+import com.google.devrel.training.conference.tools.IndexAdvisor;
+import com.googlecode.objectify.Key;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.FileInputStream;
+import java.io.InputStream;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -25,6 +43,10 @@ public class ConferenceApiGlobalQueryTest {
 
     private static final String USER_ID = "123456789";
 
+    private static final String EMAIL = "admin@example.com";
+
+    private static final String INDEXES_FILE = "src/main/webapp/WEB-INF/datastore-indexes.xml";
+
     private static final String NAME1 = "GCP Live";
 
     private static final String NAME2 = "Google I/O";
@@ -70,11 +92,17 @@ public class ConferenceApiGlobalQueryTest {
     private ConferenceApi conferenceApi;
 
     /**
-     * The helper here is intentionally use 0 for the percentage, since we test our global queries.
+     * The helper here intentionally applies every write at once, since we test our global
+     * queries.
      */
     private final LocalServiceTestHelper helper =
             new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
-                    .setDefaultHighRepJobPolicyUnappliedJobPercentage(0));
+                    .setApplyAllHighRepJobPolicy(),
+                    new LocalUserServiceTestConfig()
+                            .setOAuthUserId(USER_ID)
+                            .setOAuthEmail(EMAIL)
+                            .setOAuthAuthDomain("gmail.com")
+                            .setOAuthIsAdmin(true));
 
     private Conference conference1;
 
@@ -85,6 +113,10 @@ public class ConferenceApiGlobalQueryTest {
     @Before
     public void setUp() throws Exception {
         helper.setUp();
+        // The autocomplete table of this instance outlives the datastore of the last test.
+        AutocompleteService.invalidate();
+        // The helper has replaced the delegate RpcCounterListener wraps at startup.
+        RpcCounter.install();
         conferenceApi = new ConferenceApi();
         DateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
 
@@ -119,7 +151,8 @@ public class ConferenceApiGlobalQueryTest {
     public void testEmptyQuery() throws Exception {
         // Empty query.
         ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm();
-        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm);
+        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm)
+                .getItems();
         assertEquals(3, conferences.size());
         assertTrue("The result should contain conference1.", conferences.contains(conference1));
         assertTrue("The result should contain conference2.", conferences.contains(conference2));
@@ -138,7 +171,8 @@ public class ConferenceApiGlobalQueryTest {
                         ConferenceQueryForm.Operator.EQ,
                         "Tokyo"
                 ));
-        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm);
+        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm)
+                .getItems();
         assertEquals(1, conferences.size());
         assertTrue("The result should contain conference3.", conferences.contains(conference3));
     }
@@ -152,7 +186,8 @@ public class ConferenceApiGlobalQueryTest {
                         ConferenceQueryForm.Operator.EQ,
                         "Japan"
                 ));
-        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm);
+        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm)
+                .getItems();
         assertEquals(1, conferences.size());
         assertTrue("The result should contain conference3.", conferences.contains(conference3));
     }
@@ -176,7 +211,8 @@ public class ConferenceApiGlobalQueryTest {
                         ConferenceQueryForm.Operator.EQ,
                         "6"
                 ));
-        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm);
+        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm)
+                .getItems();
         assertEquals(1, conferences.size());
         assertTrue("The result should contain conference2.", conferences.contains(conference2));
     }
@@ -190,7 +226,8 @@ public class ConferenceApiGlobalQueryTest {
                         ConferenceQueryForm.Operator.GT,
                         "999"
                 ));
-        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm);
+        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm)
+                .getItems();
         assertEquals(2, conferences.size());
         assertTrue("The result should contain conference2.", conferences.contains(conference2));
         assertTrue("The result should contain conference3.", conferences.contains(conference3));
@@ -207,7 +244,8 @@ public class ConferenceApiGlobalQueryTest {
                         ConferenceQueryForm.Operator.LT,
                         "1001"
                 ));
-        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm);
+        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm)
+                .getItems();
         assertEquals(2, conferences.size());
         assertTrue("The result should contain conference1.", conferences.contains(conference1));
         assertTrue("The result should contain conference2.", conferences.contains(conference2));
@@ -224,7 +262,8 @@ public class ConferenceApiGlobalQueryTest {
                         ConferenceQueryForm.Operator.GTEQ,
                         "1000"
                 ));
-        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm);
+        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm)
+                .getItems();
         assertEquals(2, conferences.size());
         assertTrue("The result should contain conference2.", conferences.contains(conference2));
         assertTrue("The result should contain conference3.", conferences.contains(conference3));
@@ -241,7 +280,8 @@ public class ConferenceApiGlobalQueryTest {
                         ConferenceQueryForm.Operator.LTEQ,
                         "1000"
                 ));
-        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm);
+        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm)
+                .getItems();
         assertEquals(2, conferences.size());
         assertTrue("The result should contain conference1.", conferences.contains(conference1));
         assertTrue("The result should contain conference2.", conferences.contains(conference2));
@@ -258,7 +298,8 @@ public class ConferenceApiGlobalQueryTest {
                         ConferenceQueryForm.Operator.NE,
                         "1000"
                 ));
-        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm);
+        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm)
+                .getItems();
         assertEquals(2, conferences.size());
         assertTrue("The result should contain conference1.", conferences.contains(conference1));
         assertTrue("The result should contain conference3.", conferences.contains(conference3));
@@ -266,6 +307,324 @@ public class ConferenceApiGlobalQueryTest {
         assertEquals(conference3, conferences.get(1));
     }
 
+    @Test
+    public void testStartDateRangeQuery() throws Exception {
+        // A query specifies the startDate in June 2014.
+        ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm()
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.START_DATE,
+                        ConferenceQueryForm.Operator.GTEQ,
+                        "2014-06-01"
+                ))
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.START_DATE,
+                        ConferenceQueryForm.Operator.LT,
+                        "2014-07-01T00:00:00.000Z"
+                ));
+        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm)
+                .getItems();
+        assertEquals(1, conferences.size());
+        assertTrue("The result should contain conference2.", conferences.contains(conference2));
+    }
+
+    @Test
+    public void testYearMonthAndIsoWeekQuery() throws Exception {
+        // A query specifies the year and month, and another one the ISO week.
+        ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm()
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.YEAR_MONTH,
+                        ConferenceQueryForm.Operator.EQ,
+                        "201409"
+                ));
+        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm)
+                .getItems();
+        assertEquals(1, conferences.size());
+        assertTrue("The result should contain conference3.", conferences.contains(conference3));
+
+        conferenceQueryForm = new ConferenceQueryForm()
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.ISO_WEEK,
+                        ConferenceQueryForm.Operator.EQ,
+                        "201413"
+                ));
+        conferences = conferenceApi.queryConferences(conferenceQueryForm)
+                .getItems();
+        assertEquals(1, conferences.size());
+        assertTrue("The result should contain conference1.", conferences.contains(conference1));
+    }
+
+    @Test
+    public void testRfc3339DateQuery() throws Exception {
+        // Without fractional seconds, and with an offset.
+        ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm()
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.START_DATE,
+                        ConferenceQueryForm.Operator.GTEQ,
+                        "2014-06-01T00:00:00Z"
+                ))
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.START_DATE,
+                        ConferenceQueryForm.Operator.LT,
+                        "2014-07-01T09:00:00+09:00"
+                ));
+        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm)
+                .getItems();
+        assertEquals(ImmutableList.of(conference2), conferences);
+
+        // Fractional seconds with more than 3 digits.
+        conferenceQueryForm = new ConferenceQueryForm()
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.START_DATE,
+                        ConferenceQueryForm.Operator.GT,
+                        "2014-06-01T00:00:00.123456Z"
+                ));
+        conferences = conferenceApi.queryConferences(conferenceQueryForm).getItems();
+        assertEquals(2, conferences.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDateFilterWithInequalityFilterOnOtherField() throws Exception {
+        new ConferenceQueryForm()
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.YEAR_MONTH,
+                        ConferenceQueryForm.Operator.EQ,
+                        "201406"
+                ))
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.MAX_ATTENDEES,
+                        ConferenceQueryForm.Operator.GT,
+                        "999"
+                ))
+                .getQuery();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDateFilterWithUnsupportedEqualityFilter() throws Exception {
+        new ConferenceQueryForm()
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.MONTH,
+                        ConferenceQueryForm.Operator.EQ,
+                        "6"
+                ))
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.END_DATE,
+                        ConferenceQueryForm.Operator.GT,
+                        "2014-06-01"
+                ))
+                .getQuery();
+    }
+
+    @Test
+    public void testDateFilterWithCityFilter() throws Exception {
+        ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm()
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.CITY,
+                        ConferenceQueryForm.Operator.EQ,
+                        CITY2
+                ))
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.END_DATE,
+                        ConferenceQueryForm.Operator.GT,
+                        "2014-06-01"
+                ));
+        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm)
+                .getItems();
+        assertEquals(ImmutableList.of(conference2), conferences);
+        try (InputStream inputStream = new FileInputStream(INDEXES_FILE)) {
+            assertEquals(IndexAdvisor.PlanType.COMPOSITE,
+                    IndexAdvisor.plan(IndexAdvisor.shapeOf(conferenceQueryForm),
+                            IndexAdvisor.parseIndexes(inputStream)).getType());
+        }
+    }
+
+    @Test
+    public void testBackfillDateBuckets() throws Exception {
+        // Saved before there were yearMonth and isoWeek.
+        Entity entity = DatastoreServiceFactory.getDatastoreService()
+                .get(Key.create(conference2).getRaw());
+        entity.removeProperty("yearMonth");
+        entity.removeProperty("isoWeek");
+        DatastoreServiceFactory.getDatastoreService().put(entity);
+        MemcacheServiceFactory.getMemcacheService().clearAll();
+        ofy().clear();
+        ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm()
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.YEAR_MONTH,
+                        ConferenceQueryForm.Operator.EQ,
+                        "201406"
+                ));
+        assertTrue(conferenceApi.queryConferences(conferenceQueryForm).getItems().isEmpty());
+        // Read right before the backfill.
+        assertEquals(201406, ofy().load().entity(conference2).now().getYearMonth());
+
+        ofy().clear();
+        BackfillConferencesServlet.resave(Key.create(conference2));
+        ofy().clear();
+        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm)
+                .getItems();
+        assertEquals(1, conferences.size());
+        assertEquals(conference2.getId(), conferences.get(0).getId());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidDate() throws Exception {
+        new ConferenceQueryForm()
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.START_DATE,
+                        ConferenceQueryForm.Operator.GT,
+                        "06/01/2014"
+                ))
+                .getQuery();
+    }
+
+    @Test
+    public void testSortByStartDate() throws Exception {
+        // Soonest first, among the Conferences with topic Platform starting after 03/25/2014.
+        ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm()
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.TOPIC,
+                        ConferenceQueryForm.Operator.EQ,
+                        "Platform"
+                ))
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.START_DATE,
+                        ConferenceQueryForm.Operator.GT,
+                        "2014-03-25"
+                ))
+                .sortBy(ConferenceQueryForm.SortKey.START_DATE);
+        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm)
+                .getItems();
+        assertEquals(2, conferences.size());
+        assertEquals(conference2, conferences.get(0));
+        assertEquals(conference3, conferences.get(1));
+    }
+
+    @Test
+    public void testSortByMaxAttendeesWithLimit() throws Exception {
+        // Largest first, two at a time. The local datastore can not resume sorted keys-only
+        // queries from a cursor, so only check that one is returned while more results remain.
+        ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm()
+                .sortBy(ConferenceQueryForm.SortKey.MAX_ATTENDEES)
+                .limit(2);
+        ConferenceQueryResult result = conferenceApi.queryConferences(conferenceQueryForm);
+        assertEquals(2, result.getItems().size());
+        assertEquals(conference3, result.getItems().get(0));
+        assertEquals(conference2, result.getItems().get(1));
+        assertNotNull(result.getNextCursor());
+
+        result = conferenceApi.queryConferences(conferenceQueryForm.limit(5));
+        assertEquals(3, result.getItems().size());
+        assertEquals(conference1, result.getItems().get(2));
+        assertNull(result.getNextCursor());
+    }
+
+    @Test
+    public void testEntityBudget() throws Exception {
+        // All 3 Conferences have the same organizer, so the first costs 2 and the others 1.
+        ConferenceQueryResult result = conferenceApi.queryConferences(
+                new ConferenceQueryForm(), new QueryBudget(QueryBudget.DEFAULT_MAX_MILLIS, 3));
+        assertEquals(2, result.getItems().size());
+        assertEquals(conference1, result.getItems().get(0));
+        assertEquals(conference3, result.getItems().get(1));
+        assertTrue(result.isTruncated());
+        assertNotNull(result.getNextCursor());
+    }
+
+    @Test
+    public void testTimeBudget() throws Exception {
+        ConferenceQueryResult result = conferenceApi.queryConferences(
+                new ConferenceQueryForm(), new QueryBudget(0, QueryBudget.DEFAULT_MAX_ENTITIES));
+        assertTrue(result.getItems().isEmpty());
+        assertTrue(result.isTruncated());
+        assertNotNull(result.getNextCursor());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNotEqualFilterWithLimit() throws Exception {
+        new ConferenceQueryForm()
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.MAX_ATTENDEES,
+                        ConferenceQueryForm.Operator.NE,
+                        "1000"
+                ))
+                .limit(1)
+                .getQuery();
+    }
+
+    @Test
+    public void testNotEqualFilterOverBudget() throws Exception {
+        ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm()
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.MAX_ATTENDEES,
+                        ConferenceQueryForm.Operator.NE,
+                        "1000"
+                ));
+        // Both matching Conferences fit in a budget of 3, but not in one of 2.
+        assertEquals(2, conferenceApi.queryConferences(conferenceQueryForm,
+                new QueryBudget(QueryBudget.DEFAULT_MAX_MILLIS, 3)).getItems().size());
+        try {
+            conferenceApi.queryConferences(conferenceQueryForm,
+                    new QueryBudget(QueryBudget.DEFAULT_MAX_MILLIS, 2));
+            fail("A truncated page without a cursor should not be returned.");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testDefaultBudget() throws Exception {
+        ConferenceQueryResult result = conferenceApi.queryConferences(new ConferenceQueryForm());
+        assertEquals(3, result.getItems().size());
+        assertFalse(result.isTruncated());
+        assertNull(result.getNextCursor());
+    }
+
+    @Test
+    public void testExplainQuery() throws Exception {
+        try (InputStream inputStream = new FileInputStream(INDEXES_FILE)) {
+            QueryExplainer.setIndexes(IndexAdvisor.parseIndexes(inputStream));
+        }
+        ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm()
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.CITY,
+                        ConferenceQueryForm.Operator.EQ,
+                        "Tokyo"
+                ));
+        QueryExplanation explanation = conferenceApi.explainQuery(
+                new User(EMAIL, "gmail.com", USER_ID), conferenceQueryForm);
+        assertEquals("city ==", explanation.getShape());
+        assertEquals("COMPOSITE", explanation.getPlan());
+        assertEquals(ImmutableList.of("Conference[city, name]"), explanation.getIndexes());
+        assertEquals(1, explanation.getKeysScanned());
+        assertEquals(1, explanation.getEntitiesReturned());
+        assertFalse(explanation.isTruncated());
+        // At least the query and the batch get.
+        assertTrue(explanation.getRpcCount() >= 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSortWithUnsupportedEqualityFilter() throws Exception {
+        new ConferenceQueryForm()
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.MONTH,
+                        ConferenceQueryForm.Operator.EQ,
+                        "6"
+                ))
+                .sortBy(ConferenceQueryForm.SortKey.START_DATE)
+                .getQuery();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSortWithInequalityFilterOnOtherField() throws Exception {
+        new ConferenceQueryForm()
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.MAX_ATTENDEES,
+                        ConferenceQueryForm.Operator.GT,
+                        "999"
+                ))
+                .sortBy(ConferenceQueryForm.SortKey.START_DATE)
+                .getQuery();
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void testMultipleInequalityFilter() throws Exception {
         // A query specifies the maxAttendees <= 1000 and month != 6.
@@ -281,4 +640,78 @@ public class ConferenceApiGlobalQueryTest {
                         "6"
                 ));
     }
+
+    @Test
+    public void testGetAnnouncement() throws Exception {
+        AnnouncementService.invalidate();
+        // Nothing is nearly sold out, and that is cached too.
+        assertNull(conferenceApi.getAnnouncement());
+        ConferenceForm conferenceForm = new ConferenceForm(
+                "GCP Meetup", DESCRIPTION1, TOPICS1, CITY1, startDate1, endDate1, 3);
+        ofy().save().entity(new Conference(1004L, USER_ID, conferenceForm)).now();
+        assertNull(conferenceApi.getAnnouncement());
+
+        // The cron job rebuilds the cached announcement.
+        AnnouncementService.refresh();
+        assertTrue(conferenceApi.getAnnouncement().getMessage().endsWith("GCP Meetup"));
+
+        // Served from the instance-local copy without memcache.
+        MemcacheServiceFactory.getMemcacheService().clearAll();
+        assertTrue(conferenceApi.getAnnouncement().getMessage().endsWith("GCP Meetup"));
+    }
+
+    @Test
+    public void testAutocompleteConferences() throws Exception {
+        User user = new User(EMAIL, "gmail.com", USER_ID);
+        List<String> topics = ImmutableList.of("Google", "Cloud");
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME1, DESCRIPTION1, topics, CITY1, startDate1, endDate1, CAP1);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
+
+        // Found by the first word of the name, case insensitive.
+        List<Suggestion> suggestions = conferenceApi.autocompleteConferences("gc");
+        assertEquals(1, suggestions.size());
+        assertEquals(NAME1, suggestions.get(0).getText());
+        assertEquals(Suggestion.Type.NAME, suggestions.get(0).getType());
+        assertEquals(conference.getWebsafeKey(), suggestions.get(0).getWebsafeConferenceKey());
+        // Found by another word of the name.
+        suggestions = conferenceApi.autocompleteConferences("Liv");
+        assertEquals(1, suggestions.size());
+        assertEquals(NAME1, suggestions.get(0).getText());
+        // Found by a topic.
+        suggestions = conferenceApi.autocompleteConferences("clo");
+        assertEquals(1, suggestions.size());
+        assertEquals("Cloud", suggestions.get(0).getText());
+        assertEquals(Suggestion.Type.TOPIC, suggestions.get(0).getType());
+        assertEquals(0, conferenceApi.autocompleteConferences("").size());
+
+        // The table of the instance which updates follows at once.
+        conferenceForm = new ConferenceForm(
+                NAME2, DESCRIPTION1, topics, CITY1, startDate1, endDate1, CAP1);
+        conferenceApi.updateConference(user, conferenceForm, conference.getWebsafeKey());
+        assertEquals(0, conferenceApi.autocompleteConferences("gc").size());
+        suggestions = conferenceApi.autocompleteConferences("g");
+        assertEquals(2, suggestions.size());
+        assertEquals("Google", suggestions.get(0).getText());
+        assertEquals(NAME2, suggestions.get(1).getText());
+    }
+
+    @Test
+    public void testAutocompleteSharedTopic() throws Exception {
+        // Many rows of one topic, ahead of another topic.
+        for (long id = 2001L; id <= 2060L; id++) {
+            ConferenceForm conferenceForm = new ConferenceForm("Meetup " + id, DESCRIPTION1,
+                    ImmutableList.of("Cloud"), CITY1, startDate1, endDate1, CAP1);
+            AutocompleteService.saveTerms(new Conference(id, USER_ID, conferenceForm));
+        }
+        ConferenceForm conferenceForm = new ConferenceForm("Meetup", DESCRIPTION1,
+                ImmutableList.of("Clojure", "Cloud SQL"), CITY1, startDate1, endDate1, CAP1);
+        AutocompleteService.saveTerms(new Conference(2100L, USER_ID, conferenceForm));
+
+        List<Suggestion> suggestions = conferenceApi.autocompleteConferences("clo");
+        assertEquals(3, suggestions.size());
+        assertEquals("Clojure", suggestions.get(0).getText());
+        assertEquals("Cloud", suggestions.get(1).getText());
+        assertEquals("Cloud SQL", suggestions.get(2).getText());
+    }
 }
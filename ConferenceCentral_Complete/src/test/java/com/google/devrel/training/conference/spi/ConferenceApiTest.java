@@ -4,16 +4,27 @@ import static com.google.devrel.training.conference.service.OfyService.ofy;
 import static org.junit.Assert.*;
 
 import com.google.api.server.spi.response.ConflictException;
+import com.google.api.server.spi.response.ForbiddenException;
 import com.google.api.server.spi.response.NotFoundException;
 import com.google.api.server.spi.response.UnauthorizedException;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.users.User;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.common.collect.ImmutableList;
+import com.google.devrel.training.conference.domain.AttendeeListResult;
 import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferencesCreated;
 import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.Registration;
+import com.google.devrel.training.conference.domain.WaitlistEntry;
 import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
 import com.google.devrel.training.conference.form.ProfileForm;
 import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+import com.google.devrel.training.conference.service.VersionCache;
+import com.google.devrel.training.conference.service.WaitlistService;
 import com.googlecode.objectify.Key;
 
 import org.junit.After;
@@ -23,6 +34,7 @@ import org.junit.Test;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
@@ -50,6 +62,8 @@ public class ConferenceApiTest {
 
     private static final int CAP = 500;
 
+    private static final String LEGACY_REGISTRATIONS = "conference.registrations.legacy";
+
     private User user;
 
     private ConferenceApi conferenceApi;
@@ -67,6 +81,7 @@ public class ConferenceApiTest {
 
     @After
     public void tearDown() throws Exception {
+        System.clearProperty(LEGACY_REGISTRATIONS);
         ofy().clear();
         helper.tearDown();
     }
@@ -84,6 +99,22 @@ public class ConferenceApiTest {
         assertNull(profile);
     }
 
+    @Test
+    public void testGetProfileMissIsCached() throws Exception {
+        assertNull(conferenceApi.getProfile(user));
+        // Write a Profile behind Objectify's back, so that only the datastore knows about it.
+        Entity entity = new Entity(Key.create(Profile.class, USER_ID).getRaw());
+        entity.setProperty("displayName", DISPLAY_NAME);
+        DatastoreServiceFactory.getDatastoreService().put(entity);
+        ofy().clear();
+        // The miss is still cached.
+        assertNull(conferenceApi.getProfile(user));
+        // Saving through Objectify replaces it.
+        conferenceApi.saveProfile(user, new ProfileForm(DISPLAY_NAME, TEE_SHIRT_SIZE));
+        ofy().clear();
+        assertEquals(DISPLAY_NAME, conferenceApi.getProfile(user).getDisplayName());
+    }
+
     @Test
     public void testSaveProfile() throws Exception {
         // Save the profile for the first time.
@@ -182,7 +213,7 @@ public class ConferenceApiTest {
         topics.add("Platform");
         ConferenceForm conferenceForm = new ConferenceForm(
                 NAME, DESCRIPTION, topics, CITY, startDate, endDate, CAP);
-        Conference conference = conferenceApi.createConference(user, conferenceForm);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
         // Check the return value.
         assertEquals(NAME, conference.getName());
         assertEquals(DESCRIPTION, conference.getDescription());
@@ -214,7 +245,7 @@ public class ConferenceApiTest {
         topics.add("Platform");
         ConferenceForm conferenceForm = new ConferenceForm(
                 NAME, DESCRIPTION, topics, CITY, startDate, endDate, CAP);
-        Conference conference = conferenceApi.createConference(user, conferenceForm);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
 
         List<Conference> conferencesCreated = conferenceApi.getConferencesCreated(user);
         assertEquals(1, conferencesCreated.size());
@@ -222,6 +253,63 @@ public class ConferenceApiTest {
                 conferencesCreated.contains(conference));
     }
 
+    @Test
+    public void testGetConferencesCreatedEmpty() throws Exception {
+        assertTrue(conferenceApi.getConferencesCreated(user).isEmpty());
+        // The empty view is saved, so the next call doesn't query again.
+        Key<ConferencesCreated> viewKey =
+                ConferencesCreated.keyOf(Key.create(Profile.class, USER_ID));
+        assertTrue(ofy().load().key(viewKey).now().getConferenceKeys().isEmpty());
+
+        // It still takes the first Conference.
+        DateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
+        Date startDate = dateFormat.parse("03/25/2014");
+        Date endDate = dateFormat.parse("03/26/2014");
+        List<String> topics = new ArrayList<>();
+        topics.add("Google");
+        conferenceApi.createConference(user, new ConferenceForm(
+                NAME, DESCRIPTION, topics, CITY, startDate, endDate, CAP), null);
+        assertEquals(ImmutableList.of(NAME), namesOf(conferenceApi.getConferencesCreated(user)));
+    }
+
+    @Test
+    public void testGetConferencesCreatedOrderedByName() throws Exception {
+        DateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
+        Date startDate = dateFormat.parse("03/25/2014");
+        Date endDate = dateFormat.parse("03/26/2014");
+        List<String> topics = new ArrayList<>();
+        topics.add("Google");
+        // A Conference saved before ConferencesCreated existed.
+        Key<Profile> profileKey = Key.create(Profile.class, USER_ID);
+        ofy().save().entity(new Conference(1000L, USER_ID, new ConferenceForm(
+                "B", DESCRIPTION, topics, CITY, startDate, endDate, CAP))).now();
+        Conference conferenceA = conferenceApi.createConference(user, new ConferenceForm(
+                "A", DESCRIPTION, topics, CITY, startDate, endDate, CAP), null);
+        assertEquals(ImmutableList.of("A", "B"),
+                namesOf(conferenceApi.getConferencesCreated(user)));
+
+        // Renaming a Conference moves it.
+        conferenceApi.updateConference(user, new ConferenceForm(
+                "C", DESCRIPTION, topics, CITY, startDate, endDate, CAP),
+                conferenceA.getWebsafeKey());
+        assertEquals(ImmutableList.of("B", "C"),
+                namesOf(conferenceApi.getConferencesCreated(user)));
+
+        // A deleted view is rebuilt from the Conferences.
+        ofy().delete().key(ConferencesCreated.keyOf(profileKey)).now();
+        assertEquals(ImmutableList.of("B", "C"),
+                namesOf(conferenceApi.getConferencesCreated(user)));
+        assertNotNull(ofy().load().key(ConferencesCreated.keyOf(profileKey)).now());
+    }
+
+    private static List<String> namesOf(List<Conference> conferences) {
+        List<String> names = new ArrayList<>();
+        for (Conference conference : conferences) {
+            names.add(conference.getName());
+        }
+        return names;
+    }
+
     @Test
     public void testUpdateConference() throws Exception {
         // First create a conference.
@@ -234,7 +322,7 @@ public class ConferenceApiTest {
         topics.add("Platform");
         ConferenceForm conferenceForm = new ConferenceForm(
                 NAME, DESCRIPTION, topics, CITY, startDate, endDate, CAP);
-        Conference conference = conferenceApi.createConference(user, conferenceForm);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
         // Check the return value.
         assertEquals(NAME, conference.getName());
         assertEquals(DESCRIPTION, conference.getDescription());
@@ -259,8 +347,13 @@ public class ConferenceApiTest {
         int newCap = 5000;
         conferenceForm = new ConferenceForm(newName, newDescription, topics, newCity, startDate,
                 endDate, newCap);
+        long version = conference.getVersion();
         conference = conferenceApi.updateConference(
                 user, conferenceForm, conference.getWebsafeKey());
+        assertEquals(version + 1, conference.getVersion());
+        // The new version is cached for conditional reads.
+        assertEquals(Long.valueOf(version + 1), VersionCache.get(
+                Key.<Conference>create(conference.getWebsafeKey())));
         assertEquals(newName, conference.getName());
         assertEquals(newDescription, conference.getDescription());
         assertEquals(topics, conference.getTopics());
@@ -284,7 +377,7 @@ public class ConferenceApiTest {
         topics.add("Platform");
         ConferenceForm conferenceForm = new ConferenceForm(
                 NAME, DESCRIPTION, topics, CITY, startDate, endDate, CAP);
-        Conference conference = conferenceApi.createConference(user, conferenceForm);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
         conference = conferenceApi.getConference(conference.getWebsafeKey());
         // Check the return value.
         assertEquals(NAME, conference.getName());
@@ -299,8 +392,78 @@ public class ConferenceApiTest {
         assertEquals(MONTH, conference.getMonth());
     }
 
+    @Test
+    public void testUpdateConferenceWithEditVersion() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
+        long editVersion = conference.getEditVersion();
+        // A registration doesn't change the editVersion.
+        conferenceApi.registerForConference(user, conference.getWebsafeKey(), null);
+        conference = conferenceApi.updateConference(user, new ConferenceForm(
+                "A", DESCRIPTION, null, CITY, null, null, CAP).editVersion(editVersion),
+                conference.getWebsafeKey());
+        assertEquals("A", conference.getName());
+        assertEquals(editVersion + 1, conference.getEditVersion());
+        // An edit of the copy before that update conflicts, and changes nothing.
+        try {
+            conferenceApi.updateConference(user, new ConferenceForm(
+                    "B", DESCRIPTION, null, CITY, null, null, CAP).editVersion(editVersion),
+                    conference.getWebsafeKey());
+            fail("The stale edit should conflict.");
+        } catch (ConflictException e) {
+            // Expected.
+        }
+        ofy().clear();
+        conference = conferenceApi.getConference(conference.getWebsafeKey());
+        assertEquals("A", conference.getName());
+        assertEquals(editVersion + 1, conference.getEditVersion());
+    }
+
+    @Test(expected = ForbiddenException.class)
+    public void testUpdateConferenceByAnotherUser() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
+        conferenceApi.updateConference(
+                new User("anotheruser@example.com", "gmail.com", "anotheruserid"),
+                conferenceForm, conference.getWebsafeKey());
+    }
+
+    @Test
+    public void testCreateConferenceRetried() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, "create-1");
+        ofy().clear();
+        // The retry returns the same Conference, and doesn't create another one.
+        Conference retried = conferenceApi.createConference(user, conferenceForm, "create-1");
+        assertEquals(conference.getWebsafeKey(), retried.getWebsafeKey());
+        assertEquals(1, conferenceApi.getConferencesCreated(user).size());
+        // Another key is another request.
+        conferenceApi.createConference(user, conferenceForm, "create-2");
+        assertEquals(2, conferenceApi.getConferencesCreated(user).size());
+    }
+
+    @Test
+    public void testRegisterForConferenceRetried() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
+        assertTrue(conferenceApi.registerForConference(
+                user, conference.getWebsafeKey(), "register-1").getResult());
+        // The retry succeeds, instead of finding the user already registered.
+        assertTrue(conferenceApi.registerForConference(
+                user, conference.getWebsafeKey(), "register-1").getResult());
+        ofy().clear();
+        conference = conferenceApi.getConference(conference.getWebsafeKey());
+        assertEquals(CAP - 1, conference.getSeatsAvailable());
+    }
+
     @Test
     public void testRegistrations() throws Exception {
+        // Once the backfill has run, the Profile is only updated by the tasks.
+        System.setProperty(LEGACY_REGISTRATIONS, "false");
         DateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
         Date startDate = dateFormat.parse("03/25/2014");
         Date endDate = dateFormat.parse("03/26/2014");
@@ -310,14 +473,18 @@ public class ConferenceApiTest {
         topics.add("Platform");
         ConferenceForm conferenceForm = new ConferenceForm(
                 NAME, DESCRIPTION, topics, CITY, startDate, endDate, CAP);
-        Conference conference = conferenceApi.createConference(user, conferenceForm);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
         // Registration
         Boolean result = conferenceApi.registerForConference(
-                user, conference.getWebsafeKey()).getResult();
+                user, conference.getWebsafeKey(), null).getResult();
         conference = conferenceApi.getConference(conference.getWebsafeKey());
-        Profile profile = ofy().load().key(Key.create(Profile.class, user.getUserId())).now();
+        Key<Conference> conferenceKey = Key.create(conference.getWebsafeKey());
         assertTrue("registerForConference should succeed.", result);
         assertEquals(CAP - 1, conference.getSeatsAvailable());
+        assertNotNull(ofy().load().key(Registration.keyOf(conferenceKey, USER_ID)).now());
+        // The Profile is updated by the task registerForConference enqueued.
+        Registration.syncProfile(USER_ID, conferenceKey);
+        Profile profile = ofy().load().key(Key.create(Profile.class, user.getUserId())).now();
         assertTrue("Profile should have the conferenceId in conferenceIdsToAttend.",
                 profile.getConferenceKeysToAttend().contains(conference.getWebsafeKey()));
 
@@ -325,11 +492,89 @@ public class ConferenceApiTest {
         result = conferenceApi.unregisterFromConference(
                 user, conference.getWebsafeKey()).getResult();
         conference = conferenceApi.getConference(conference.getWebsafeKey());
-        profile = ofy().load().key(Key.create(Profile.class, user.getUserId())).now();
         assertTrue("unregisterFromConference should succeed.", result);
         assertEquals(CAP, conference.getSeatsAvailable());
+        assertNull(ofy().load().key(Registration.keyOf(conferenceKey, USER_ID)).now());
+        // Until the task unregisterFromConference enqueued has run, the Profile still lists it,
+        // which unregistering again doesn't take for a registration.
+        assertFalse(conferenceApi.unregisterFromConference(
+                user, conference.getWebsafeKey()).getResult());
+        assertEquals(CAP, conferenceApi.getConference(conference.getWebsafeKey())
+                .getSeatsAvailable());
+        Registration.syncProfile(USER_ID, conferenceKey);
+        profile = ofy().load().key(Key.create(Profile.class, user.getUserId())).now();
         assertFalse("Profile shouldn't have the conferenceId in conferenceIdsToAttend.",
                 profile.getConferenceKeysToAttend().contains(conference.getWebsafeKey()));
+        // A late task of the registration doesn't list it again.
+        Registration.syncProfile(USER_ID, conferenceKey);
+        profile = ofy().load().key(Key.create(Profile.class, user.getUserId())).now();
+        assertFalse(profile.getConferenceKeysToAttend().contains(conference.getWebsafeKey()));
+    }
+
+    @Test
+    public void testRegistrationBeforeRegistrations() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
+        String websafeKey = conference.getWebsafeKey();
+        // Registered by an older version: a booked seat and the Profile, but no Registration.
+        conference.bookSeats(1);
+        Profile profile = ofy().load().key(Key.create(Profile.class, USER_ID)).now();
+        profile.addToConferenceKeysToAttend(websafeKey);
+        ofy().save().entities(conference, profile).now();
+
+        // Checked before the transactions, which don't read the Profile.
+        try {
+            conferenceApi.registerForConference(user, websafeKey, null);
+            fail("The user should already be registered.");
+        } catch (ConflictException expected) {
+        }
+        try {
+            conferenceApi.joinWaitlist(user, websafeKey);
+            fail("The user should already be registered.");
+        } catch (ConflictException expected) {
+        }
+        // Until the backfill has run, unregistering drops it from the Profile at once.
+        assertTrue(conferenceApi.unregisterFromConference(user, websafeKey).getResult());
+        ofy().clear();
+        assertEquals(CAP, conferenceApi.getConference(websafeKey).getSeatsAvailable());
+        profile = ofy().load().key(Key.create(Profile.class, USER_ID)).now();
+        assertFalse(profile.getConferenceKeysToAttend().contains(websafeKey));
+        assertFalse(conferenceApi.unregisterFromConference(user, websafeKey).getResult());
+    }
+
+    @Test
+    public void testGetAttendees() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
+        String websafeKey = conference.getWebsafeKey();
+        assertEquals(0, conferenceApi.getAttendees(user, websafeKey, null, null).getItems().size());
+        for (String userId : new String[] {"attendee1", "attendee2", "attendee3"}) {
+            conferenceApi.registerForConference(
+                    new User(userId + "@example.com", "gmail.com", userId), websafeKey, null);
+        }
+        // Two pages of two, the second one partial.
+        AttendeeListResult page = conferenceApi.getAttendees(user, websafeKey, null, 2);
+        assertEquals(2, page.getItems().size());
+        assertEquals("attendee1", page.getItems().get(0).getDisplayName());
+        assertEquals("attendee1@example.com", page.getItems().get(0).getMainEmail());
+        assertNotNull(page.getItems().get(0).getRegisteredAt());
+        assertNotNull(page.getNextCursor());
+        page = conferenceApi.getAttendees(user, websafeKey, page.getNextCursor(), 2);
+        assertEquals(1, page.getItems().size());
+        assertEquals("attendee3", page.getItems().get(0).getDisplayName());
+        assertNull(page.getNextCursor());
+    }
+
+    @Test(expected = ForbiddenException.class)
+    public void testGetAttendeesByAnotherUser() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
+        conferenceApi.getAttendees(
+                new User("anotheruser@example.com", "gmail.com", "anotheruserid"),
+                conference.getWebsafeKey(), null, null);
     }
 
     @Test(expected = ConflictException.class)
@@ -344,9 +589,9 @@ public class ConferenceApiTest {
         // Create a conference as the remaining seats is zero.
         ConferenceForm conferenceForm = new ConferenceForm(
                 NAME, DESCRIPTION, topics, CITY, startDate, endDate, 0);
-        Conference conference = conferenceApi.createConference(user, conferenceForm);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
         conferenceApi.registerForConference(
-                user, conference.getWebsafeKey()).getResult();
+                user, conference.getWebsafeKey(), null).getResult();
     }
 
     @Test(expected = ConflictException.class)
@@ -360,20 +605,79 @@ public class ConferenceApiTest {
         topics.add("Platform");
         ConferenceForm conferenceForm = new ConferenceForm(
                 NAME, DESCRIPTION, topics, CITY, startDate, endDate, CAP);
-        Conference conference = conferenceApi.createConference(user, conferenceForm);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
         // Registration
         Boolean result = conferenceApi.registerForConference(
-                user, conference.getWebsafeKey()).getResult();
+                user, conference.getWebsafeKey(), null).getResult();
         conference = conferenceApi.getConference(conference.getWebsafeKey());
-        Profile profile = ofy().load().key(Key.create(Profile.class, user.getUserId())).now();
         assertTrue("The first registration should succeed.", result);
         assertEquals(CAP - 1, conference.getSeatsAvailable());
-        assertTrue("Profile should have the conferenceId in conferenceIdsToAttend.",
-                profile.getConferenceKeysToAttend().contains(conference.getWebsafeKey()));
 
         // The user has already registered for the conference. This should throw an ForbiddenException.
         conferenceApi.registerForConference(
-                user, conference.getWebsafeKey()).getResult();
+                user, conference.getWebsafeKey(), null).getResult();
+    }
+
+    @Test
+    public void testWaitlist() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, 1);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
+        String websafeKey = conference.getWebsafeKey();
+        Key<Conference> conferenceKey = Key.create(websafeKey);
+        User first = new User("first@example.com", "gmail.com", "firstid");
+        User second = new User("second@example.com", "gmail.com", "secondid");
+        assertTrue(conferenceApi.registerForConference(user, websafeKey, null).getResult());
+        assertTrue(conferenceApi.joinWaitlist(first, websafeKey).getResult());
+        assertTrue(conferenceApi.joinWaitlist(second, websafeKey).getResult());
+        // Joining twice keeps the place.
+        assertTrue(conferenceApi.joinWaitlist(first, websafeKey).getResult());
+        conference = conferenceApi.getConference(websafeKey);
+        assertEquals(2, conference.getWaitlistLength());
+
+        // The freed seat is kept for the first user waiting.
+        conferenceApi.unregisterFromConference(user, websafeKey);
+        conference = conferenceApi.getConference(websafeKey);
+        assertEquals(1, conference.getSeatsAvailable());
+        assertFalse(conference.isOpenForRegistration());
+        try {
+            conferenceApi.registerForConference(user, websafeKey, null);
+            fail("The seat should be kept for the waitlist.");
+        } catch (ConflictException expected) {
+        }
+
+        // The promotion task.
+        assertEquals(Arrays.asList("firstid"), WaitlistService.promote(conferenceKey));
+        conference = conferenceApi.getConference(websafeKey);
+        assertEquals(0, conference.getSeatsAvailable());
+        assertEquals(1, conference.getWaitlistLength());
+        assertNotNull(ofy().load().key(Registration.keyOf(conferenceKey, "firstid")).now());
+        assertNull(ofy().load().key(WaitlistEntry.keyOf(conferenceKey, "firstid")).now());
+        // Nothing more to promote.
+        assertTrue(WaitlistService.promote(conferenceKey).isEmpty());
+    }
+
+    @Test(expected = ConflictException.class)
+    public void testJoinWaitlistWhenRegistered() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
+        conferenceApi.registerForConference(user, conference.getWebsafeKey(), null);
+        conferenceApi.joinWaitlist(user, conference.getWebsafeKey());
+    }
+
+    @Test
+    public void testLeaveWaitlist() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, 0);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
+        String websafeKey = conference.getWebsafeKey();
+        assertFalse(conferenceApi.leaveWaitlist(user, websafeKey).getResult());
+        assertTrue(conferenceApi.joinWaitlist(user, websafeKey).getResult());
+        assertTrue(conferenceApi.leaveWaitlist(user, websafeKey).getResult());
+        conference = conferenceApi.getConference(websafeKey);
+        assertEquals(0, conference.getWaitlistLength());
+        assertFalse(conferenceApi.leaveWaitlist(user, websafeKey).getResult());
     }
 
     @Test(expected = NotFoundException.class)
@@ -393,18 +697,24 @@ public class ConferenceApiTest {
         topics.add("Platform");
         ConferenceForm conferenceForm = new ConferenceForm(
                 NAME, DESCRIPTION, topics, CITY, startDate, endDate, CAP);
-        Conference conference = conferenceApi.createConference(user, conferenceForm);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
 
         // Should be 0 result.
         Collection<Conference> conferenceToAttend = conferenceApi.getConferencesToAttend(user);
         assertEquals(0, conferenceToAttend.size());
 
-        // Registration
-        conferenceApi.registerForConference(user, conference.getWebsafeKey());
+        // Registration, and the task which lists it in the Profile.
+        conferenceApi.registerForConference(user, conference.getWebsafeKey(), null);
+        Registration.syncProfile(USER_ID, Key.<Conference>create(conference.getWebsafeKey()));
         conference = conferenceApi.getConference(conference.getWebsafeKey());
         conferenceToAttend = conferenceApi.getConferencesToAttend(user);
         assertEquals(1, conferenceToAttend.size());
         assertTrue("The result should contain the conference.",
                 conferenceToAttend.contains(conference));
     }
+
+    @Test(expected = ForbiddenException.class)
+    public void testExplainQueryWithoutAdmin() throws Exception {
+        conferenceApi.explainQuery(user, new ConferenceQueryForm());
+    }
 }
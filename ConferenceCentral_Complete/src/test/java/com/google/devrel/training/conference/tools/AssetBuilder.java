@@ -0,0 +1,411 @@
+package com.google.devrel.training.conference.tools;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Bundles, minifies and fingerprints the static files of the web app.
+ *
+ * Reads the web app directory and writes to an output directory, which the war plugin lays over
+ * the web app:
+ * <ul>
+ *     <li>The local scripts of index.html are bundled into /assets/js/app.{hash}.js, and its
+ *     local stylesheets into /assets/css/app.{hash}.css, both minified.</li>
+ *     <li>Images, fonts and partials are copied under /assets with their hash in their
+ *     name.</li>
+ *     <li>index.html loads the bundles, and every reference to a copied file is rewritten.</li>
+ * </ul>
+ * A file under /assets never changes once deployed, so appengine-web.xml lets clients cache them
+ * for a year. index.html itself keeps its name and the default expiration. The sources are
+ * left where they are, so the dev server keeps serving them unbundled.
+ *
+ * The minifiers only drop comments and whitespace. They neither rename nor reorder anything,
+ * and keep the line breaks of scripts, which automatic semicolon insertion may rely on.
+ *
+ * It is in the test sources, so it is not packaged with the app. Run by the build in the
+ * prepare-package phase, or from the project directory with:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test
+ *     -Dexec.mainClass=com.google.devrel.training.conference.tools.AssetBuilder
+ *     -Dexec.args="[web app directory] [output directory]"
+ * </pre>
+ */
+public class AssetBuilder {
+
+    private static final String DEFAULT_WEBAPP_DIR = "src/main/webapp";
+
+    private static final String DEFAULT_OUTPUT_DIR = "target/generated-webapp";
+
+    private static final String ASSETS_PATH = "/assets/";
+
+    /**
+     * The directories of files which are only fingerprinted.
+     */
+    private static final List<String> BINARY_DIRS = ImmutableList.of("img", "fonts");
+
+    private static final String PARTIALS_DIR = "partials";
+
+    private static final int HASH_LENGTH = 8;
+
+    private static final Pattern LOCAL_STYLESHEET =
+            Pattern.compile("[ \\t]*<link rel=\"stylesheet\" href=\"(/[^/\"][^\"]*)\">\\n");
+
+    private static final Pattern LOCAL_SCRIPT =
+            Pattern.compile("[ \\t]*<script src=\"(/[^/\"][^\"]*)\"></script>\\n");
+
+    private final File webappDir;
+
+    private final File outputDir;
+
+    /**
+     * The fingerprinted path of each copied file, by the paths referring to it.
+     */
+    private final Map<String, String> renamed = new LinkedHashMap<>();
+
+    public AssetBuilder(File webappDir, File outputDir) {
+        this.webappDir = webappDir;
+        this.outputDir = outputDir;
+    }
+
+    /**
+     * Builds the assets and index.html into the output directory.
+     */
+    public void build() throws IOException {
+        for (String dir : BINARY_DIRS) {
+            for (File file : listFiles(dir)) {
+                String path = "/" + dir + "/" + file.getName();
+                String target = writeAsset(path, Files.readAllBytes(file.toPath()));
+                renamed.put(path, target);
+                // As the stylesheets refer to fonts.
+                renamed.put(".." + path, target);
+            }
+        }
+        for (File file : listFiles(PARTIALS_DIR)) {
+            String path = "/" + PARTIALS_DIR + "/" + file.getName();
+            String html = rewrite(read(file));
+            renamed.put(path, writeAsset(path, html.getBytes(Charsets.UTF_8)));
+        }
+
+        String index = read(new File(webappDir, "index.html"));
+        index = bundle(index, LOCAL_STYLESHEET, "/css/app.css",
+                "    <link rel=\"stylesheet\" href=\"%s\">\n");
+        index = bundle(index, LOCAL_SCRIPT, "/js/app.js", "<script src=\"%s\"></script>\n");
+        write(new File(outputDir, "index.html"), rewrite(index).getBytes(Charsets.UTF_8));
+    }
+
+    /**
+     * Replaces the tags loading local files with one tag loading their minified bundle.
+     */
+    private String bundle(String html, Pattern tag, String bundlePath, String bundleTag)
+            throws IOException {
+        Matcher matcher = tag.matcher(html);
+        StringBuilder sources = new StringBuilder();
+        int first = -1;
+        StringBuffer result = new StringBuffer();
+        while (matcher.find()) {
+            String source = read(new File(webappDir, matcher.group(1).substring(1)));
+            if (bundlePath.endsWith(".js")) {
+                // Scripts may omit their last semicolon.
+                sources.append(minifyJs(source)).append(";\n");
+            } else {
+                sources.append(minifyCss(source)).append("\n");
+            }
+            matcher.appendReplacement(result, "");
+            if (first == -1) {
+                // The bundle goes where the first tag was.
+                first = result.length();
+            }
+        }
+        matcher.appendTail(result);
+        if (sources.length() == 0) {
+            return html;
+        }
+        String target = writeAsset(bundlePath,
+                rewrite(sources.toString()).getBytes(Charsets.UTF_8));
+        return result.insert(first, String.format(bundleTag, target)).toString();
+    }
+
+    /**
+     * Writes a file under /assets, with its hash in its name.
+     *
+     * @param path The path the file is served at without fingerprinting.
+     * @param content The content of the file.
+     * @return the path the file is served at.
+     */
+    private String writeAsset(String path, byte[] content) throws IOException {
+        String hash = Hashing.sha1().hashBytes(content).toString().substring(0, HASH_LENGTH);
+        int dot = path.lastIndexOf('.');
+        String target = ASSETS_PATH + path.substring(1, dot) + "." + hash + path.substring(dot);
+        write(new File(outputDir, target.substring(1)), content);
+        return target;
+    }
+
+    /**
+     * Replaces the references to copied files with their fingerprinted paths.
+     */
+    private String rewrite(String text) {
+        List<String> paths = new ArrayList<>(renamed.keySet());
+        // Longest first, so that no path is replaced within a longer one.
+        Collections.sort(paths, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return b.length() - a.length();
+            }
+        });
+        for (String path : paths) {
+            text = text.replace(path, renamed.get(path));
+        }
+        return text;
+    }
+
+    private List<File> listFiles(String dir) {
+        File[] files = new File(webappDir, dir).listFiles();
+        List<File> result = new ArrayList<>();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile()) {
+                    result.add(file);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), Charsets.UTF_8);
+    }
+
+    private static void write(File file, byte[] content) throws IOException {
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), content);
+    }
+
+    /**
+     * Removes the comments and the needless whitespace of a script.
+     *
+     * Line breaks are kept, one per run of blank lines.
+     */
+    static String minifyJs(String source) {
+        StringBuilder out = new StringBuilder(source.length());
+        int i = 0;
+        int n = source.length();
+        while (i < n) {
+            char c = source.charAt(i);
+            if (c == '\'' || c == '"') {
+                dropSpaceBefore(out, c);
+                i = copyString(source, i, out);
+            } else if (c == '/' && i + 1 < n && source.charAt(i + 1) == '/') {
+                while (i < n && source.charAt(i) != '\n') {
+                    i++;
+                }
+            } else if (c == '/' && i + 1 < n && source.charAt(i + 1) == '*') {
+                int end = source.indexOf("*/", i + 2);
+                end = end == -1 ? n : end + 2;
+                // A comment with a line break still ends a statement.
+                appendWhitespace(out, source.substring(i, end).indexOf('\n') != -1);
+                i = end;
+            } else if (c == '/' && startsRegex(out)) {
+                dropSpaceBefore(out, c);
+                i = copyRegex(source, i, out);
+            } else if (Character.isWhitespace(c)) {
+                boolean lineBreak = false;
+                while (i < n && Character.isWhitespace(source.charAt(i))) {
+                    lineBreak |= source.charAt(i) == '\n';
+                    i++;
+                }
+                appendWhitespace(out, lineBreak);
+            } else {
+                dropSpaceBefore(out, c);
+                out.append(c);
+                i++;
+            }
+        }
+        return out.toString().trim();
+    }
+
+    /**
+     * Removes the comments and the needless whitespace of a stylesheet.
+     *
+     * Comments starting with "/*!" are kept, as they usually hold a license.
+     */
+    static String minifyCss(String source) {
+        StringBuilder out = new StringBuilder(source.length());
+        int i = 0;
+        int n = source.length();
+        while (i < n) {
+            char c = source.charAt(i);
+            if (c == '\'' || c == '"') {
+                i = copyString(source, i, out);
+            } else if (c == '/' && i + 1 < n && source.charAt(i + 1) == '*') {
+                int end = source.indexOf("*/", i + 2);
+                end = end == -1 ? n : end + 2;
+                if (i + 2 < n && source.charAt(i + 2) == '!') {
+                    out.append(source, i, end).append('\n');
+                }
+                i = end;
+            } else if (Character.isWhitespace(c)) {
+                while (i < n && Character.isWhitespace(source.charAt(i))) {
+                    i++;
+                }
+                char last = out.length() == 0 ? '{' : out.charAt(out.length() - 1);
+                char next = i < n ? source.charAt(i) : '}';
+                // A space is never needed after a colon, but is before one: "a :hover".
+                if ("{};,:\n".indexOf(last) == -1 && "{};,".indexOf(next) == -1) {
+                    out.append(' ');
+                }
+            } else if (c == '}' && out.length() > 0 && out.charAt(out.length() - 1) == ';') {
+                out.setCharAt(out.length() - 1, '}');
+                i++;
+            } else {
+                if (out.length() > 0 && out.charAt(out.length() - 1) == ' '
+                        && "{};,".indexOf(c) != -1) {
+                    out.setLength(out.length() - 1);
+                }
+                out.append(c);
+                i++;
+            }
+        }
+        return out.toString().trim();
+    }
+
+    /**
+     * Copies a quoted string, escapes included.
+     *
+     * @return the index after the closing quote.
+     */
+    private static int copyString(String source, int start, StringBuilder out) {
+        char quote = source.charAt(start);
+        int i = start + 1;
+        while (i < source.length() && source.charAt(i) != quote
+                && source.charAt(i) != '\n') {
+            i += source.charAt(i) == '\\' ? 2 : 1;
+        }
+        int end = Math.min(i + 1, source.length());
+        out.append(source, start, end);
+        return end;
+    }
+
+    /**
+     * Copies a regular expression literal, character classes and escapes included.
+     *
+     * @return the index after the flags.
+     */
+    private static int copyRegex(String source, int start, StringBuilder out) {
+        int i = start + 1;
+        boolean inClass = false;
+        while (i < source.length()) {
+            char c = source.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            }
+            if (c == '\n' || (c == '/' && !inClass)) {
+                break;
+            }
+            if (c == '[') {
+                inClass = true;
+            } else if (c == ']') {
+                inClass = false;
+            }
+            i++;
+        }
+        i = Math.min(i + 1, source.length());
+        while (i < source.length() && Character.isLetter(source.charAt(i))) {
+            i++;
+        }
+        out.append(source, start, i);
+        return i;
+    }
+
+    /**
+     * Tells whether a slash starts a regular expression rather than being a division, from the
+     * code before it.
+     */
+    private static boolean startsRegex(StringBuilder out) {
+        int end = out.length();
+        while (end > 0 && Character.isWhitespace(out.charAt(end - 1))) {
+            end--;
+        }
+        if (end == 0) {
+            return true;
+        }
+        char last = out.charAt(end - 1);
+        if (last == ')' || last == ']' || last == '}' || last == '\'' || last == '"') {
+            return false;
+        }
+        if (!isIdentifierPart(last)) {
+            return true;
+        }
+        int start = end;
+        while (start > 0 && isIdentifierPart(out.charAt(start - 1))) {
+            start--;
+        }
+        String word = out.substring(start, end);
+        return word.equals("return") || word.equals("typeof") || word.equals("in")
+                || word.equals("case") || word.equals("throw") || word.equals("new")
+                || word.equals("delete") || word.equals("void");
+    }
+
+    /**
+     * Appends one space or line break in place of a run of whitespace or a comment, and only
+     * when the code around would change without it.
+     */
+    private static void appendWhitespace(StringBuilder out, boolean lineBreak) {
+        int length = out.length();
+        if (length == 0) {
+            return;
+        }
+        char last = out.charAt(length - 1);
+        if (last == '\n') {
+            return;
+        }
+        if (last == ' ') {
+            if (!lineBreak) {
+                return;
+            }
+            out.setLength(length - 1);
+        }
+        out.append(lineBreak ? '\n' : ' ');
+    }
+
+    /**
+     * Drops a space which separates nothing before the given character.
+     */
+    private static void dropSpaceBefore(StringBuilder out, char next) {
+        int length = out.length();
+        if (length < 2 || out.charAt(length - 1) != ' ') {
+            return;
+        }
+        char last = out.charAt(length - 2);
+        boolean needed = (isIdentifierPart(last) && isIdentifierPart(next))
+                // "a + +b" and "a - -b" are not "a ++b" and "a --b".
+                || ((last == '+' || last == '-') && last == next);
+        if (!needed) {
+            out.setLength(length - 1);
+        }
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c > 127;
+    }
+
+    public static void main(String[] args) throws Exception {
+        File webappDir = new File(args.length > 0 ? args[0] : DEFAULT_WEBAPP_DIR);
+        File outputDir = new File(args.length > 1 ? args[1] : DEFAULT_OUTPUT_DIR);
+        new AssetBuilder(webappDir, outputDir).build();
+        System.out.println("Wrote the assets of " + webappDir + " to " + outputDir);
+    }
+}
@@ -0,0 +1,85 @@
+package com.google.devrel.training.conference.tools;
+
+import static org.junit.Assert.*;
+
+import com.google.common.base.Charsets;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Tests for AssetBuilder.
+ */
+public class AssetBuilderTest {
+
+    private static final String WEBAPP_DIR = "src/main/webapp";
+
+    private static final Pattern ASSET_REFERENCE = Pattern.compile("/assets/[^\"')?#]+");
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File outputDir;
+
+    @Before
+    public void setUp() throws Exception {
+        outputDir = temporaryFolder.newFolder("assets");
+    }
+
+    @Test
+    public void testMinifyJs() throws Exception {
+        assertEquals("var a=b+c;\nvar d='// not a comment';",
+                AssetBuilder.minifyJs("// A comment.\nvar a = b + c;  /* Another. */\n\n"
+                        + "    var d = '// not a comment';\n"));
+        assertEquals("a=b+ +c;\nf=/ [/]* /g;\nreturn x",
+                AssetBuilder.minifyJs("a = b + +c;\nf = / [/]* /g;\nreturn x"));
+        // A comment with a line break ends the statement, so the break is kept.
+        assertEquals("a\nb", AssetBuilder.minifyJs("a /*\n */ b"));
+        assertEquals("a=b/c/d", AssetBuilder.minifyJs("a = b / c / d"));
+    }
+
+    @Test
+    public void testMinifyCss() throws Exception {
+        assertEquals("a :hover,b > c{color:red;content:\"a  b\"}",
+                AssetBuilder.minifyCss("/* A comment. */\na :hover,\nb > c {\n"
+                        + "    color: red;\n    content: \"a  b\";\n}\n"));
+        assertEquals("/*! License. */\nx{y:z}",
+                AssetBuilder.minifyCss("/*! License. */\nx { y: z; }"));
+    }
+
+    @Test
+    public void testBuild() throws Exception {
+        new AssetBuilder(new File(WEBAPP_DIR), outputDir).build();
+        String index = read("index.html");
+        assertFalse(index.contains("\"/js/"));
+        assertFalse(index.contains("\"/css/"));
+        assertFalse(index.contains("\"/img/"));
+        // Everything referred to is there, the partials referred to by the script included.
+        Matcher scripts = Pattern.compile("/assets/js/[^\"]+").matcher(index);
+        assertTrue(scripts.find());
+        assertReferencesExist(index);
+        String script = read(scripts.group().substring(1));
+        assertFalse(script.contains("'/partials/"));
+        assertReferencesExist(script);
+        Matcher stylesheets = Pattern.compile("/assets/css/[^\"]+").matcher(index);
+        assertTrue(stylesheets.find());
+        assertReferencesExist(read(stylesheets.group().substring(1)));
+    }
+
+    private void assertReferencesExist(String text) {
+        Matcher matcher = ASSET_REFERENCE.matcher(text);
+        while (matcher.find()) {
+            assertTrue(matcher.group(), new File(outputDir, matcher.group().substring(1)).isFile());
+        }
+    }
+
+    private String read(String path) throws Exception {
+        return new String(Files.readAllBytes(new File(outputDir, path).toPath()), Charsets.UTF_8);
+    }
+}
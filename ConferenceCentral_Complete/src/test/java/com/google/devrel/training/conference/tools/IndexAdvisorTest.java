@@ -0,0 +1,153 @@
+package com.google.devrel.training.conference.tools;
+
+import static org.junit.Assert.*;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Field;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.SortKey;
+import com.google.devrel.training.conference.tools.IndexAdvisor.CompositeIndex;
+import com.google.devrel.training.conference.tools.IndexAdvisor.PlanType;
+import com.google.devrel.training.conference.tools.IndexAdvisor.QueryPlan;
+import com.google.devrel.training.conference.tools.IndexAdvisor.QueryShape;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Tests for IndexAdvisor.
+ */
+public class IndexAdvisorTest {
+
+    private static final String INDEXES_FILE = "src/main/webapp/WEB-INF/datastore-indexes.xml";
+
+    private static final int TOPICS = 3;
+
+    private List<CompositeIndex> currentIndexes;
+
+    @Before
+    public void setUp() throws Exception {
+        try (InputStream inputStream = new FileInputStream(INDEXES_FILE)) {
+            currentIndexes = IndexAdvisor.parseIndexes(inputStream);
+        }
+    }
+
+    @Test
+    public void testEnumerateShapes() throws Exception {
+        // Without the date fields, 16 equality-only shapes, plus 8 for each of the 4 inequality
+        // fields.
+        assertEquals(48, IndexAdvisor.enumerateShapes().size());
+        assertEquals(48 + 16 + 32, IndexAdvisor.enumerateAllShapes().size());
+    }
+
+    @Test
+    public void testParseIndexes() throws Exception {
+        assertEquals(37, currentIndexes.size());
+        assertTrue(currentIndexes.contains(
+                new CompositeIndex(true, ImmutableList.of("name"))));
+        assertTrue(currentIndexes.contains(
+                new CompositeIndex(false, ImmutableList.of("city", "name"))));
+        assertTrue(currentIndexes.contains(
+                new CompositeIndex(false, ImmutableList.of("topics", "-maxAttendees"))));
+    }
+
+    @Test
+    public void testSortShapesServed() throws Exception {
+        // 4 equality subsets, with and without an inequality filter, for each of 2 sort keys.
+        assertEquals(16, IndexAdvisor.enumerateSortShapes().size());
+        assertTrue(IndexAdvisor.unservedSortShapes(currentIndexes).isEmpty());
+        QueryPlan plan = IndexAdvisor.plan(new QueryShape(EnumSet.of(Field.CITY, Field.TOPIC),
+                null, SortKey.MAX_ATTENDEES), currentIndexes);
+        assertEquals(PlanType.MERGE_JOIN, plan.getType());
+        plan = IndexAdvisor.plan(new QueryShape(EnumSet.noneOf(Field.class),
+                Field.START_DATE, SortKey.START_DATE), currentIndexes);
+        assertEquals(PlanType.BUILT_IN, plan.getType());
+    }
+
+    @Test
+    public void testDateShapesServed() throws Exception {
+        // 4 equality subsets, with the date field as an equality or inequality filter, for each
+        // of 4 date fields.
+        assertEquals(32, IndexAdvisor.enumerateDateShapes().size());
+        assertTrue(IndexAdvisor.unservedDateShapes(currentIndexes).isEmpty());
+        QueryPlan plan = IndexAdvisor.plan(new QueryShape(EnumSet.of(Field.CITY, Field.TOPIC),
+                Field.END_DATE), currentIndexes);
+        assertEquals(PlanType.MERGE_JOIN, plan.getType());
+    }
+
+    @Test
+    public void testPlan() throws Exception {
+        QueryPlan plan = IndexAdvisor.plan(
+                new QueryShape(EnumSet.noneOf(Field.class), null), currentIndexes);
+        assertEquals(PlanType.BUILT_IN, plan.getType());
+        plan = IndexAdvisor.plan(
+                new QueryShape(EnumSet.of(Field.CITY, Field.TOPIC), null), currentIndexes);
+        assertEquals(PlanType.COMPOSITE, plan.getType());
+        plan = IndexAdvisor.plan(
+                new QueryShape(EnumSet.of(Field.CITY, Field.TOPIC, Field.MAX_ATTENDEES), null),
+                currentIndexes);
+        assertEquals(PlanType.MERGE_JOIN, plan.getType());
+        assertEquals(2, plan.getIndexes().size());
+        plan = IndexAdvisor.plan(
+                new QueryShape(EnumSet.of(Field.TOPIC), Field.MONTH), currentIndexes);
+        assertEquals(PlanType.COMPOSITE, plan.getType());
+        // ConferenceQueryForm rejects this shape, so no index serves it.
+        plan = IndexAdvisor.plan(
+                new QueryShape(EnumSet.of(Field.MONTH), Field.START_DATE), currentIndexes);
+        assertEquals(PlanType.NOT_SERVED, plan.getType());
+    }
+
+    @Test
+    public void testPlanInequalityWithoutIndex() throws Exception {
+        // Sorted by startDate and then name, which no index has.
+        QueryShape shape = new QueryShape(EnumSet.noneOf(Field.class), Field.START_DATE);
+        QueryPlan plan = IndexAdvisor.plan(shape, ImmutableList.of(
+                new CompositeIndex(false, ImmutableList.of("city", "name")),
+                new CompositeIndex(false, ImmutableList.of("startDate", "-name"))));
+        assertEquals(PlanType.NOT_SERVED, plan.getType());
+        assertTrue(plan.getIndexes().isEmpty());
+        plan = IndexAdvisor.plan(shape, ImmutableList.of(
+                new CompositeIndex(false, ImmutableList.of("startDate", "name"))));
+        assertEquals(PlanType.COMPOSITE, plan.getType());
+    }
+
+    @Test
+    public void testMinimalIndexesServeAllShapes() throws Exception {
+        List<CompositeIndex> minimalIndexes = IndexAdvisor.minimalIndexes();
+        for (QueryShape shape : IndexAdvisor.enumerateAllShapes()) {
+            assertNotEquals(shape.toString(), PlanType.NOT_SERVED,
+                    IndexAdvisor.plan(shape, minimalIndexes).getType());
+        }
+    }
+
+    @Test
+    public void testIndexesFileHasMinimalIndexes() throws Exception {
+        // Including the date composites, so that the advisor's output can replace the file.
+        for (CompositeIndex index : IndexAdvisor.minimalIndexes()) {
+            assertTrue(index.toString(), currentIndexes.contains(index));
+        }
+        assertTrue(currentIndexes.contains(new CompositeIndex(
+                false, ImmutableList.of("city", "isoWeek", "name"))));
+        for (QueryShape shape : IndexAdvisor.enumerateAllShapes()) {
+            assertNotEquals(shape.toString(), PlanType.NOT_SERVED,
+                    IndexAdvisor.plan(shape, currentIndexes).getType());
+        }
+    }
+
+    @Test
+    public void testWrites() throws Exception {
+        // seatsAvailable is not indexed unless nearly sold out, and no composite index contains
+        // it, so a registration only rewrites the entity.
+        assertEquals(1, IndexAdvisor.writesForPropertyChange(
+                currentIndexes, "seatsAvailable", TOPICS));
+        List<CompositeIndex> cityIndex =
+                ImmutableList.of(new CompositeIndex(false, ImmutableList.of("city", "name")));
+        // 1 for the entity, 4 for the built-in index and 2 for [city, name].
+        assertEquals(7, IndexAdvisor.writesForPropertyChange(cityIndex, "city", TOPICS));
+        // 2 for the entity, 2 * 11 for built-in indexes and 1 for [city, name].
+        assertEquals(25, IndexAdvisor.writesForNewEntity(cityIndex, TOPICS));
+    }
+}
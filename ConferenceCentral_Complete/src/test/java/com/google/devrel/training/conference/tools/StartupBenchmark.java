@@ -0,0 +1,299 @@
+package com.google.devrel.training.conference.tools;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Measures the cold start of the app in the local dev server.
+ *
+ * Each run starts a new dev server process, and measures from the process start:
+ * <ul>
+ *     <li>when the server accepts connections,</li>
+ *     <li>when the first request to each public API method is answered, and how long it
+ *     took.</li>
+ * </ul>
+ * It then reads the StartupProfiler report of the server, which breaks the startup down into
+ * the listeners, the Objectify registration, the filters and the first requests, and stops the
+ * server. The requests go one after the other, in the order of REQUESTS. After all the runs,
+ * the median of each measure is printed, to compare between changes.
+ *
+ * The methods which need a signed in user are not covered, as the dev server can't sign in an
+ * OAuth user. The dev server has to run the exploded war, and exec the JVM in the process it is
+ * started as, or stop when that process does. A war without the report, such as
+ * one built before StartupProfiler, is measured all the same. The dev servers of the recent
+ * SDKs have no API frontend for this version of Endpoints, so with -Dbenchmark.spi=true the
+ * requests go straight to the backend at /_ah/spi, the way the frontend passes them on. It is
+ * in the test sources, so it is not packaged with the app. Run from the project directory
+ * with:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test
+ *     -Dexec.mainClass=com.google.devrel.training.conference.tools.StartupBenchmark
+ *     -Dexec.args="[runs] [port] [dev server command...]"
+ * </pre>
+ * The command defaults to $APPENGINE_SDK/bin/dev_appserver.sh --port=[port]
+ * target/conference-1.0. The output of each run goes to target/startup-benchmark-[run].log.
+ */
+public class StartupBenchmark {
+
+    private static final int DEFAULT_RUNS = 3;
+
+    private static final int DEFAULT_PORT = 8080;
+
+    private static final long START_TIMEOUT_MILLIS = 120 * 1000;
+
+    private static final long POLL_MILLIS = 20;
+
+    private static final String API_PATH = "/_ah/api/conference/v1/";
+
+    private static final String SPI_PATH =
+            "/_ah/spi/com.google.devrel.training.conference.spi.ConferenceApi.";
+
+    /**
+     * The public API methods, with their HTTP method, path and body, and their body on the
+     * backend, which has all the parameters. The method getConference is added with the first
+     * Conference queryConferences returns, if any.
+     */
+    private static final List<String[]> REQUESTS = Arrays.asList(
+            new String[] {"getAnnouncement", "GET", "announcement", null, "{}"},
+            new String[] {"queryConferences", "POST", "queryConferences", "{}", "{}"},
+            new String[] {"getFacets", "GET", "facets", null, "{}"},
+            new String[] {"autocompleteConferences", "GET", "autocomplete?prefix=g", null,
+                    "{\"prefix\":\"g\"}"});
+
+    private static final Pattern WEBSAFE_KEY =
+            Pattern.compile("\"websafeKey\"\\s*:\\s*\"([^\"]+)\"");
+
+    private final int port;
+
+    private final List<String> command;
+
+    /**
+     * Whether the requests go to the backend rather than through the API frontend.
+     */
+    private final boolean spi;
+
+    public StartupBenchmark(int port, List<String> command, boolean spi) {
+        this.port = port;
+        this.command = command;
+        this.spi = spi;
+    }
+
+    /**
+     * Starts the dev server, sends the first requests and stops it.
+     *
+     * @param log The file for the output of the server.
+     * @return the measures, in milliseconds from the process start, by name.
+     */
+    public Map<String, Long> run(File log) throws Exception {
+        Map<String, Long> measures = new LinkedHashMap<>();
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command).redirectErrorStream(true)
+                .redirectOutput(log).start();
+        try {
+            waitForPort(process);
+            measures.put("listening", millisSince(start));
+            String websafeKey = null;
+            for (String[] request : REQUESTS) {
+                long sent = millisSince(start);
+                String body = spi
+                        ? send("POST", SPI_PATH + request[0], request[4], null)
+                        : send(request[1], API_PATH + request[2], request[3], null);
+                measures.put(request[0] + " answered", millisSince(start));
+                measures.put(request[0] + " took", millisSince(start) - sent);
+                Matcher matcher = WEBSAFE_KEY.matcher(body);
+                if (websafeKey == null && matcher.find()) {
+                    websafeKey = matcher.group(1);
+                }
+            }
+            if (websafeKey != null) {
+                long sent = millisSince(start);
+                if (spi) {
+                    send("POST", SPI_PATH + "getConference",
+                            "{\"websafeConferenceKey\":\"" + websafeKey + "\"}", null);
+                } else {
+                    send("GET", API_PATH + "conference/" + websafeKey, null, null);
+                }
+                measures.put("getConference answered", millisSince(start));
+                measures.put("getConference took", millisSince(start) - sent);
+            }
+            try {
+                System.out.print(send("GET", "/admin/startup", null, signInAsAdmin()));
+            } catch (IOException e) {
+                System.out.println("  No startup report: " + e.getMessage());
+            }
+        } finally {
+            process.destroy();
+            process.waitFor();
+            waitForPortClosed();
+        }
+        return measures;
+    }
+
+    private void waitForPort(Process process) throws Exception {
+        long deadline = System.currentTimeMillis() + START_TIMEOUT_MILLIS;
+        while (System.currentTimeMillis() < deadline) {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress("localhost", port), (int) POLL_MILLIS);
+                return;
+            } catch (IOException e) {
+                // Not listening yet.
+            }
+            if (!isRunning(process)) {
+                throw new IllegalStateException(
+                        "The dev server exited with " + process.exitValue());
+            }
+            Thread.sleep(POLL_MILLIS);
+        }
+        throw new IllegalStateException("The dev server did not start in time");
+    }
+
+    /**
+     * Waits for the server to close the port, as the dev server may run in a child process of
+     * the one started, which stops after it. Otherwise the next run would reach the old server.
+     */
+    private void waitForPortClosed() throws Exception {
+        long deadline = System.currentTimeMillis() + START_TIMEOUT_MILLIS;
+        while (System.currentTimeMillis() < deadline) {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress("localhost", port), (int) POLL_MILLIS);
+            } catch (IOException e) {
+                return;
+            }
+            Thread.sleep(POLL_MILLIS);
+        }
+        throw new IllegalStateException("The dev server did not stop in time");
+    }
+
+    private static boolean isRunning(Process process) {
+        try {
+            process.exitValue();
+            return false;
+        } catch (IllegalThreadStateException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Signs in to the dev server as an administrator.
+     *
+     * @return the login cookie.
+     */
+    private String signInAsAdmin() throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port
+                + "/_ah/login").openConnection();
+        connection.setInstanceFollowRedirects(false);
+        // The login form, which the dev servers of the recent SDKs only take as a post.
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+        try (OutputStream outputStream = connection.getOutputStream()) {
+            outputStream.write("email=benchmark@example.com&isAdmin=on&action=Log+In&continue=/"
+                    .getBytes(Charsets.UTF_8));
+        }
+        String cookie = connection.getHeaderField("Set-Cookie");
+        connection.disconnect();
+        return cookie == null ? null : cookie.split(";", 2)[0];
+    }
+
+    /**
+     * Sends a request and reads the whole response.
+     *
+     * @return the response body.
+     */
+    private String send(String method, String path, String body, String cookie)
+            throws IOException {
+        HttpURLConnection connection =
+                (HttpURLConnection) new URL("http://localhost:" + port + path).openConnection();
+        connection.setRequestMethod(method);
+        if (path.startsWith(SPI_PATH)) {
+            // The backend only answers the API frontend.
+            connection.setRequestProperty("X-AppEngine-Peer", "apiserving");
+        }
+        if (cookie != null) {
+            connection.setRequestProperty("Cookie", cookie);
+        }
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            try (OutputStream outputStream = connection.getOutputStream()) {
+                outputStream.write(body.getBytes(Charsets.UTF_8));
+            }
+        }
+        try {
+            int status = connection.getResponseCode();
+            if (status >= 400) {
+                throw new IOException(method + " " + path + " answered " + status);
+            }
+            try (InputStream inputStream = connection.getInputStream()) {
+                return new String(ByteStreams.toByteArray(inputStream), Charsets.UTF_8);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static long millisSince(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1000000;
+    }
+
+    private static long median(List<Long> values) {
+        List<Long> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        return sorted.get(sorted.size() / 2);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_RUNS;
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+        List<String> command;
+        if (args.length > 2) {
+            command = Arrays.asList(args).subList(2, args.length);
+        } else {
+            String sdk = System.getenv("APPENGINE_SDK");
+            if (sdk == null) {
+                throw new IllegalArgumentException(
+                        "Set APPENGINE_SDK, or give the dev server command");
+            }
+            command = Arrays.asList(sdk + "/bin/dev_appserver.sh", "--port=" + port,
+                    "target/conference-1.0");
+        }
+        StartupBenchmark benchmark =
+                new StartupBenchmark(port, command, Boolean.getBoolean("benchmark.spi"));
+        Map<String, List<Long>> results = new LinkedHashMap<>();
+        for (int run = 1; run <= runs; run++) {
+            System.out.println("Run " + run + " of " + runs);
+            Map<String, Long> measures =
+                    benchmark.run(new File("target/startup-benchmark-" + run + ".log"));
+            for (Map.Entry<String, Long> measure : measures.entrySet()) {
+                System.out.println(String.format("  %-36s %6d ms",
+                        measure.getKey(), measure.getValue()));
+                if (!results.containsKey(measure.getKey())) {
+                    results.put(measure.getKey(), new ArrayList<Long>());
+                }
+                results.get(measure.getKey()).add(measure.getValue());
+            }
+        }
+        System.out.println("Median of " + runs + " runs");
+        for (Map.Entry<String, List<Long>> result : results.entrySet()) {
+            System.out.println(String.format("  %-36s %6d ms",
+                    result.getKey(), median(result.getValue())));
+        }
+    }
+}